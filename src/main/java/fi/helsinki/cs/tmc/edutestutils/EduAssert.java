@@ -52,6 +52,59 @@ public class EduAssert extends Assert {
         assertMatches("\"" + actual + "\" does not have the required form.", regex, actual);
     }
     
+    /**
+     * Asserts that an indexed output matches a regexp <em>entirely</em>.
+     * 
+     * @see #assertMatches(String, String, String)
+     */
+    public static void assertMatches(String message, String regex, OutputIndex actual) {
+        if (!actual.matches(regex)) {
+            fail(message);
+        }
+    }
+    
+    /**
+     * Asserts that an indexed output matches a regexp <em>entirely</em>.
+     * 
+     * @see #assertMatches(String, String)
+     */
+    public static void assertMatches(String regex, OutputIndex actual) {
+        assertMatches("\"" + actual + "\" does not have the required form.", regex, actual);
+    }
+    
+    /**
+     * Asserts that a string contains another string.
+     * 
+     * <p>
+     * The default failure message is <code>`Expected to find "&lt;expected&gt;" in `&lt;actual&gt;``</code>
+     */
+    public static void assertContains(String expected, String actual) {
+        assertContains("Expected to find \"" + expected + "\" in `" + actual + "`", expected, actual);
+    }
+    
+    /**
+     * Asserts that a string contains another string.
+     */
+    public static void assertContains(String message, String expected, String actual) {
+        if (!actual.contains(expected)) {
+            fail(message);
+        }
+    }
+    
+    /**
+     * Asserts that an indexed output contains a string.
+     */
+    public static void assertContains(String expected, OutputIndex actual) {
+        assertContains(expected, actual.getText());
+    }
+    
+    /**
+     * Asserts that an indexed output contains a string.
+     */
+    public static void assertContains(String message, String expected, OutputIndex actual) {
+        assertContains(message, expected, actual.getText());
+    }
+    
     /**
      * Asserts that a string contains a number close to (diff &lt; 0.000001) the given double.
      * 
@@ -104,6 +157,38 @@ public class EduAssert extends Assert {
         return false;
     }
     
+    /**
+     * Asserts that an indexed output contains a number close to (diff &lt; 0.000001) the given double.
+     * 
+     * @see #assertContainsNumber(double, String)
+     */
+    public static void assertContainsNumber(double number, OutputIndex actual) {
+        assertContainsNumber("Expected to find the number " + number + " in `" + actual + "`", number, actual);
+    }
+    
+    /**
+     * Asserts that an indexed output contains a number close to (diff &lt; 0.000001) the given double.
+     * 
+     * @see #assertContainsNumber(String, double, String)
+     */
+    public static void assertContainsNumber(String message, double number, OutputIndex actual) {
+        if (!actual.containsNumber(number)) {
+            fail(message);
+        }
+    }
+    
+    /**
+     * Checks whether an indexed output contains a number close to (diff &lt; 0.000001) the given double.
+     * 
+     * <p>
+     * This is a binary search over the numbers found when indexing.
+     * 
+     * @see #containsNumber(double, String)
+     */
+    public static boolean containsNumber(double number, OutputIndex actual) {
+        return actual.containsNumber(number);
+    }
+    
     /**
      * Asserts two strings equal ignoring consecutive whitespace.
      * 
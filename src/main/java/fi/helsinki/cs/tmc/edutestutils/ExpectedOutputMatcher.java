@@ -0,0 +1,182 @@
+package fi.helsinki.cs.tmc.edutestutils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Compares output to an expected text as it is written.
+ *
+ * <p>
+ * Throws an {@link AssertionError} from the write that makes the output
+ * differ from the expected text or go past its end, and from every write
+ * after that. {@link #verifyComplete()} rethrows the error in case the
+ * program caught it, and also fails if the output ended too early.
+ *
+ * <p>
+ * Both are normalized as described in {@link NormalizingOutputStream}.
+ * The expected text is read a piece at a time as the output proceeds,
+ * so a huge expected file isn't loaded into memory.
+ */
+class ExpectedOutputMatcher extends NormalizingOutputStream {
+    private static final int MAX_SHOWN_LENGTH = 80; // Longer lines are cut in messages.
+    private static final int READ_SIZE = 4096;
+
+    private final Reader source;
+    private final char[] readBuffer = new char[READ_SIZE];
+    private final ExpectedText expectedText;
+    private boolean sourceEnded = false;
+
+    // Normalized expected characters read but not matched yet.
+    private final StringBuilder ahead = new StringBuilder();
+    private int aheadPos = 0;
+
+    private int line = 1;
+    private final StringBuilder lineHead = new StringBuilder(); // Start of the current line, for messages.
+    private AssertionError failure;
+
+    ExpectedOutputMatcher(String expected, boolean ignoreSpaces, Charset charset) {
+        this(new StringReader(expected), ignoreSpaces, charset);
+    }
+
+    /**
+     * Creates a matcher reading the expected text from the given reader,
+     * which is closed once read to the end or by {@link #close()}.
+     */
+    ExpectedOutputMatcher(Reader expected, boolean ignoreSpaces, Charset charset) {
+        super(ignoreSpaces, charset);
+        this.source = expected;
+        this.expectedText = new ExpectedText(ignoreSpaces, charset);
+    }
+
+    @Override
+    protected synchronized void onChars(CharBuffer chars) {
+        if (failure != null) {
+            throw failure;
+        }
+        super.onChars(chars);
+    }
+
+    @Override
+    protected void accept(char c) {
+        if (!fill(1)) {
+            throw fail("Output continues after the expected output ends, starting with \""
+                    + escape(String.valueOf(c)) + "\"");
+        }
+        if (ahead.charAt(aheadPos) != c) {
+            throw fail("Output differs from the expected output on line " + line + ".\n"
+                    + "Expected: \"" + escape(expectedLine()) + "\"\n"
+                    + "But was:  \"" + escape(lineHead.toString() + c) + "\"");
+        }
+        aheadPos++;
+        if (aheadPos == ahead.length()) {
+            ahead.setLength(0);
+            aheadPos = 0;
+        }
+        if (c == '\n') {
+            line++;
+            lineHead.setLength(0);
+        } else if (lineHead.length() <= MAX_SHOWN_LENGTH) {
+            lineHead.append(c);
+        }
+    }
+
+    // Reads until at least n unmatched expected characters are available.
+    // Returns false if the expected text ends before that.
+    private boolean fill(int n) {
+        while (ahead.length() - aheadPos < n && !sourceEnded) {
+            int read;
+            try {
+                read = source.read(readBuffer);
+            } catch (IOException ex) {
+                closeSource();
+                throw new IllegalStateException("Failed to read the expected output", ex);
+            }
+            if (read < 0) {
+                expectedText.endOfOutput();
+                closeSource();
+            } else {
+                for (int i = 0; i < read; ++i) {
+                    expectedText.feed(readBuffer[i]);
+                }
+            }
+        }
+        return ahead.length() - aheadPos >= n;
+    }
+
+    // The expected text of the current line, as much as fits in a message.
+    private String expectedLine() {
+        StringBuilder sb = new StringBuilder(lineHead);
+        for (int i = 0; sb.length() <= MAX_SHOWN_LENGTH && fill(i + 1); ++i) {
+            char c = ahead.charAt(aheadPos + i);
+            if (c == '\n') {
+                break;
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    private AssertionError fail(String message) {
+        failure = new AssertionError(message);
+        return failure;
+    }
+
+    synchronized boolean hasFailed() {
+        return failure != null;
+    }
+
+    /**
+     * Throws if the output differed from the expected output or didn't print all of it.
+     */
+    synchronized void verifyComplete() {
+        if (failure != null) {
+            throw failure;
+        }
+        endOfOutput();
+        if (fill(1)) {
+            fill(MAX_SHOWN_LENGTH);
+            int end = Math.min(ahead.length(), aheadPos + MAX_SHOWN_LENGTH);
+            throw fail("Output ended on line " + line + " before the expected output did.\n"
+                    + "Expected next: \"" + escape(ahead.substring(aheadPos, end)) + "\"");
+        }
+    }
+
+    /**
+     * Closes the expected text's reader.
+     */
+    @Override
+    public synchronized void close() {
+        closeSource();
+    }
+
+    private void closeSource() {
+        sourceEnded = true;
+        try {
+            source.close();
+        } catch (IOException ex) {
+            // Everything needed has been read
+        }
+    }
+
+    private static String escape(String s) {
+        if (s.length() > MAX_SHOWN_LENGTH) {
+            s = s.substring(0, MAX_SHOWN_LENGTH) + "...";
+        }
+        return s.replace("\r", "\\r").replace("\n", "\\n").replace("\t", "\\t");
+    }
+
+    // Normalizes the expected text the same way as the output.
+    private class ExpectedText extends NormalizingOutputStream {
+        ExpectedText(boolean ignoreSpaces, Charset charset) {
+            super(ignoreSpaces, charset);
+        }
+
+        @Override
+        protected void accept(char c) {
+            ahead.append(c);
+        }
+    }
+}
@@ -1,11 +1,26 @@
 package fi.helsinki.cs.tmc.edutestutils;
 
+import fi.helsinki.cs.tmc.edutestutils.utils.DecodedCapture;
+import fi.helsinki.cs.tmc.edutestutils.utils.LineIteratorInputStream;
+import fi.helsinki.cs.tmc.edutestutils.utils.MemoryCaptureOutputStream;
+import fi.helsinki.cs.tmc.edutestutils.utils.ResettableByteArrayInputStream;
+import fi.helsinki.cs.tmc.edutestutils.utils.TeeOutputStream;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
 
 /**
  * A simple class for capturing {@code System.out} and injecting
@@ -29,14 +44,23 @@ import java.nio.charset.Charset;
  * This class automatically converts line endings in stdout to unix format (only
  * \n).
  *
+ * <p>When running the same code for many inputs, reuse one instance with
+ * {@link #reset(String)}, which keeps its buffers instead of allocating new ones.
+ * Closed instances also leave their arrays, but not their streams, for the
+ * next {@code MockInOut} created on the same thread.
+ *
  * @see MockStdio
  */
 public class MockInOut {
 
+    private static final int MAX_POOLED_SIZE = 1024 * 1024; // Bigger arrays are left to the GC.
+    private static final ThreadLocal<SpareArrays> pool = new ThreadLocal<SpareArrays>();
+
     private PrintStream orig;
     private InputStream irig;
-    private ByteArrayOutputStream os;
-    private ByteArrayInputStream is;
+    private Buffers buffers;
+    private MemoryCaptureOutputStream os;
+    private InputStream is;
     
     private final static Charset charset;
     static {
@@ -50,24 +74,89 @@ public class MockInOut {
     }
 
     public MockInOut(String input) {
+        this((InputStream)null);
+        is = buffers.input(input);
+        System.setIn(is);
+    }
+
+    /**
+     * Reads System.in from the given stream, which is closed by {@link #close()}.
+     */
+    public MockInOut(InputStream input) {
         orig = System.out;
         irig = System.in;
 
-        os = new ByteArrayOutputStream();
-        try {
-            System.setOut(new PrintStream(os, false, charset.name()));
-        } catch (UnsupportedEncodingException ex) {
-            throw new RuntimeException(ex);
+        SpareArrays spare = pool.get();
+        if (spare != null) {
+            pool.set(null);
+        } else {
+            spare = new SpareArrays();
         }
+        buffers = new Buffers(spare);
+        os = buffers.output;
+        System.setOut(buffers.printStream);
+
+        is = input;
+        System.setIn(is);
+    }
+
+    /**
+     * Reads System.in from the given file through a channel,
+     * so even a huge file uses little memory.
+     */
+    public MockInOut(Path input) throws IOException {
+        this(Channels.newInputStream(FileChannel.open(input, StandardOpenOption.READ)));
+    }
 
-        is = new ByteArrayInputStream(input.getBytes());
+    /**
+     * Reads System.in from lines taken from the iterator only as they are read.
+     * Each line is followed by <tt>\n</tt>.
+     */
+    public MockInOut(Iterator<String> lines) {
+        this(new LineIteratorInputStream(lines, Charset.defaultCharset()));
+    }
+
+    /**
+     * Clears the output and starts System.in over with new input, as if
+     * this {@code MockInOut} had just been constructed.
+     *
+     * <p>
+     * The buffers are reused, so after the first few iterations this
+     * allocates nothing, unlike creating a new {@code MockInOut}.
+     * A stream previously returned by {@link #getInputStream()} now reads
+     * the new input.
+     */
+    public void reset(String input) {
+        if (os == null) {
+            throw new Error("reset on closed MockInOut!");
+        }
+        buffers.printStream.flush();
+        os.reset();
+        buffers.text.reset();
+        System.setOut(buffers.printStream);
+        if (is != buffers.input) {
+            closeInput();
+        }
+        is = buffers.input(input);
         System.setIn(is);
     }
 
     /**
      * You can use this if you want to check how much of the input was read.
+     *
+     * @throws IllegalStateException If the input wasn't given as a string.
      */
     public ByteArrayInputStream getInputStream() {
+        if (!(is instanceof ByteArrayInputStream)) {
+            throw new IllegalStateException("Input wasn't given as a string. Use getInput().");
+        }
+        return (ByteArrayInputStream)is;
+    }
+
+    /**
+     * Returns the stream System.in reads from.
+     */
+    public InputStream getInput() {
         return is;
     }
 
@@ -77,23 +166,132 @@ public class MockInOut {
      */
     public String getOutput() {
         if (os != null) {
-            try {
-                return os.toString(charset.name()).replace("\r\n", "\n");
-            } catch (UnsupportedEncodingException ex) {
-                throw new RuntimeException(ex);
-            }
+            buffers.printStream.flush();
+            return buffers.text.getString();
         } else {
             throw new Error("getOutput on closed MockInOut!");
         }
     }
 
+    /**
+     * Starts fingerprinting System.out for comparing it to a huge expected output.
+     *
+     * <p>
+     * Output written before this call is included. Note that it is still captured too.
+     *
+     * @see OutputFingerprint
+     */
+    public OutputFingerprint fingerprintOutput(OutputFingerprint expected) {
+        if (os == null) {
+            throw new Error("fingerprintOutput on closed MockInOut!");
+        }
+        System.out.flush();
+        OutputFingerprint fingerprint = new OutputFingerprint(expected, charset);
+        ByteBuffer printed = os.getBuffer();
+        byte[] bytes = new byte[printed.remaining()];
+        printed.get(bytes);
+        fingerprint.write(bytes, 0, bytes.length);
+        try {
+            System.setOut(new PrintStream(new TeeOutputStream(os, fingerprint), false, charset.name()));
+        } catch (UnsupportedEncodingException ex) {
+            throw new RuntimeException(ex);
+        }
+        return fingerprint;
+    }
+
     /**
      * Restores System.in and System.out
      */
     public void close() {
-        os = null;
-        is = null;
+        if (os == null) {
+            return;
+        }
+        closeInput();
         System.setOut(orig);
         System.setIn(irig);
+        buffers.release();
+        buffers = null;
+        os = null;
+        is = null;
+    }
+
+    private void closeInput() {
+        if (is != null) {
+            try {
+                is.close();
+            } catch (IOException ex) {
+                // Nobody cares anymore
+            }
+        }
+    }
+
+    // Arrays left by a closed MockInOut for the next one on the same thread.
+    private static class SpareArrays {
+        byte[] output = new byte[256];
+        char[] text = new char[256];
+        byte[] input = new byte[256];
+    }
+
+    // What a MockInOut needs, kept for reuse by reset().
+    // The streams are never shared between instances, since code under test
+    // may still hold the streams of a closed one. Only their arrays are.
+    private static class Buffers {
+        final SpareArrays spare;
+        final MemoryCaptureOutputStream output;
+        final DecodedCapture text;
+        final PrintStream printStream;
+        // Encodes like String.getBytes() but into a reused array.
+        final CharsetEncoder encoder = Charset.defaultCharset().newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        byte[] inputBytes;
+        final ResettableByteArrayInputStream input;
+
+        Buffers(SpareArrays spare) {
+            this.spare = spare;
+            output = new MemoryCaptureOutputStream(spare.output);
+            text = new DecodedCapture(output, charset, spare.text);
+            inputBytes = spare.input;
+            input = new ResettableByteArrayInputStream(inputBytes);
+            spare.output = null;
+            spare.text = null;
+            spare.input = null;
+            try {
+                printStream = new PrintStream(output, false, charset.name());
+            } catch (UnsupportedEncodingException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+
+        ResettableByteArrayInputStream input(String s) {
+            int needed = (int)Math.ceil(s.length() * (double)encoder.maxBytesPerChar());
+            if (inputBytes.length < needed) {
+                inputBytes = new byte[needed];
+            }
+            ByteBuffer bytes = ByteBuffer.wrap(inputBytes);
+            encoder.reset();
+            CoderResult result = encoder.encode(CharBuffer.wrap(s), bytes, true);
+            if (!result.isUnderflow()) {
+                throw new IllegalStateException("Failed to encode input: " + result);
+            }
+            encoder.flush(bytes);
+            input.setContents(inputBytes, bytes.position());
+            return input;
+        }
+
+        // Takes the arrays from the streams, so streams kept by code under test
+        // can't reach them anymore, and leaves them to the next instance.
+        void release() {
+            printStream.flush();
+            spare.output = output.detach();
+            spare.text = text.detach();
+            input.detach();
+            spare.input = inputBytes;
+            if (spare.output.length <= MAX_POOLED_SIZE
+                    && spare.text != null && spare.text.length * 2 <= MAX_POOLED_SIZE
+                    && spare.input.length <= MAX_POOLED_SIZE) {
+                pool.set(spare);
+            }
+        }
     }
 }
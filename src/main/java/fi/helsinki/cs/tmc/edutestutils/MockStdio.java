@@ -1,14 +1,30 @@
 package fi.helsinki.cs.tmc.edutestutils;
 
+import fi.helsinki.cs.tmc.edutestutils.utils.BufferingOutputStream;
+import fi.helsinki.cs.tmc.edutestutils.utils.CaptureOutputStream;
+import fi.helsinki.cs.tmc.edutestutils.utils.DecodedCapture;
+import fi.helsinki.cs.tmc.edutestutils.utils.LineIteratorInputStream;
+import fi.helsinki.cs.tmc.edutestutils.utils.MemoryCaptureOutputStream;
+import fi.helsinki.cs.tmc.edutestutils.utils.SpillingOutputStream;
 import fi.helsinki.cs.tmc.edutestutils.utils.SwitchableInputStream;
 import fi.helsinki.cs.tmc.edutestutils.utils.SwitchableOutputStream;
+import fi.helsinki.cs.tmc.edutestutils.utils.TeeOutputStream;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.io.Reader;
+import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
 import java.util.Scanner;
 import org.junit.rules.TestRule;
 import org.junit.runner.Description;
@@ -84,10 +100,20 @@ public class MockStdio implements TestRule {
     private static final SwitchableInputStream switchIn = new SwitchableInputStream(realIn);
     private static final SwitchableOutputStream switchOut = new SwitchableOutputStream(realOut);
     private static final SwitchableOutputStream switchErr = new SwitchableOutputStream(realErr);
+    private static final BufferingOutputStream bufferOut = new BufferingOutputStream(switchOut);
+    private static final BufferingOutputStream bufferErr = new BufferingOutputStream(switchErr);
 
     private InputStream mockIn;
-    private ByteArrayOutputStream mockOut;
-    private ByteArrayOutputStream mockErr;
+    private CaptureOutputStream mockOut;
+    private CaptureOutputStream mockErr;
+    private DecodedCapture sysOutText;
+    private DecodedCapture sysErrText;
+    private OutputIndex sysOutIndex;
+    private int spillThreshold = 0;
+    private boolean buffered = false;
+    private OutputStream sysOutTee;
+    private ExpectedOutputMatcher expectedSysOut;
+    private OutputFingerprint sysOutFingerprint;
     private boolean enabled;
 
     @Override
@@ -100,6 +126,10 @@ public class MockStdio implements TestRule {
                         enable();
                     }
                     stmnt.evaluate();
+                    flushBuffers();
+                    if (expectedSysOut != null) {
+                        expectedSysOut.verifyComplete();
+                    }
                 } finally {
                     if (enabled) {
                         disable();
@@ -115,8 +145,8 @@ public class MockStdio implements TestRule {
 
         System.setIn(switchIn);
         try {
-            System.setOut(new PrintStream(switchOut, true, charset.name()));
-            System.setErr(new PrintStream(switchErr, true, charset.name()));
+            System.setOut(new PrintStream(bufferOut, true, charset.name()));
+            System.setErr(new PrintStream(bufferErr, true, charset.name()));
         } catch (UnsupportedEncodingException ex) {
             throw new Error(ex);
         }
@@ -125,44 +155,355 @@ public class MockStdio implements TestRule {
     }
 
     private void resetMockIn() {
+        closeMockIn();
         mockIn = new ByteArrayInputStream(new byte[0]);
     }
 
+    private void closeMockIn() {
+        if (mockIn != null) {
+            try {
+                mockIn.close();
+            } catch (IOException ex) {
+                // The test is over and nobody cares
+            }
+        }
+    }
+
     private void resetMockOutAndErr() {
-        mockOut = new ByteArrayOutputStream();
-        mockErr = new ByteArrayOutputStream();
+        if (mockOut != null) {
+            mockOut.close();
+            mockErr.close();
+        }
+        mockOut = newCapture();
+        mockErr = newCapture();
+        sysOutText = new DecodedCapture(mockOut, charset);
+        sysOutIndex = null;
+        sysErrText = new DecodedCapture(mockErr, charset);
+    }
+
+    private CaptureOutputStream newCapture() {
+        if (spillThreshold > 0) {
+            return new SpillingOutputStream(spillThreshold);
+        } else {
+            return new MemoryCaptureOutputStream();
+        }
+    }
+
+    /**
+     * Sets how many bytes of output to keep in memory before moving it to a temporary file.
+     *
+     * <p>
+     * Use this for exercises that print tens of megabytes. Once spilled,
+     * {@link #getSysOut()} still works but reads the whole file onto the
+     * heap, so prefer {@link #getSysOutBuffer()}, which maps it into memory.
+     *
+     * <p>
+     * Takes effect immediately if nothing has been printed during this
+     * test yet, and otherwise when the next test starts.
+     *
+     * <p>
+     * Defaults to 0, meaning output is always kept in memory.
+     */
+    public void setSpillThreshold(int bytes) {
+        this.spillThreshold = bytes;
+        flushBuffers();
+        if (enabled && mockOut.size() == 0 && mockErr.size() == 0) {
+            resetMockOutAndErr();
+            switchOut.setUnderlying(sysOutTarget());
+            switchErr.setUnderlying(mockErr);
+        }
     }
 
     /**
      * Sets what {@link System#in} receives during this test.
      */
     public void setSysIn(String str) {
-        mockIn = new ByteArrayInputStream(str.getBytes(charset));
+        setSysIn(new ByteArrayInputStream(str.getBytes(charset)));
+    }
+
+    /**
+     * Sets a stream that {@link System#in} reads from during this test.
+     *
+     * <p>
+     * The stream is closed when the test ends or another input is set.
+     */
+    public void setSysIn(InputStream in) {
+        closeMockIn();
+        mockIn = in;
         if (enabled) {
             switchIn.setUnderlying(mockIn);
         }
     }
 
     /**
-     * Returns what was printed to {@link System#out} during this test.
+     * Sets a file that {@link System#in} reads from during this test.
+     *
+     * <p>
+     * The file is read through a channel as the test reads
+     * {@link System#in}, so even a huge file uses little memory.
      */
-    public String getSysOut() {
+    public void setSysIn(Path file) throws IOException {
+        setSysIn(Channels.newInputStream(FileChannel.open(file, StandardOpenOption.READ)));
+    }
+
+    /**
+     * Sets lines that {@link System#in} receives during this test.
+     *
+     * <p>
+     * Lines are taken from the iterator only as the test reads them,
+     * so they can be generated on the fly without keeping the whole
+     * input in memory. Each line is followed by <tt>\n</tt>.
+     */
+    public void setSysIn(Iterator<String> lines) {
+        setSysIn(new LineIteratorInputStream(lines, charset));
+    }
+
+    /**
+     * Sets lines that {@link System#in} receives during this test.
+     *
+     * @see #setSysIn(Iterator)
+     */
+    public void setSysIn(Iterable<String> lines) {
+        setSysIn(lines.iterator());
+    }
+
+    /**
+     * Also sends what is printed to {@link System#out} to the given stream,
+     * or stops doing so if null.
+     *
+     * @see StdioDialog
+     */
+    void setSysOutTee(OutputStream tee) {
+        flushBuffers();
+        sysOutTee = tee;
+        if (enabled) {
+            switchOut.setUnderlying(sysOutTarget());
+        }
+        // The dialog has to see prompts as soon as they are printed.
+        updateBuffering();
+    }
+
+    /**
+     * Sets whether output is buffered instead of being flushed on every line.
+     *
+     * <p>
+     * By default, {@link System#out} and {@link System#err} flush on every
+     * <tt>println</tt>, which slows down programs that print a lot.
+     * When buffered, output is collected into a buffer that is flushed
+     * when it fills up, before reading the output with the getters and
+     * when the test ends. Calling {@code flush()} on {@code System.out}
+     * doesn't flush the buffer.
+     *
+     * <p>
+     * Output checked as it is printed, like with
+     * {@link #expectSysOut(String)}, is then checked a buffer at a time.
+     * {@link StdioDialog} turns buffering off while it runs.
+     *
+     * <p>
+     * Defaults to false.
+     */
+    public void setBuffered(boolean enable) {
+        this.buffered = enable;
+        updateBuffering();
+    }
+
+    private void updateBuffering() {
         try {
-            return mockOut.toString(charset.name()).replace("\r\n", "\n");
-        } catch (UnsupportedEncodingException ex) {
+            bufferOut.setBuffering(enabled && buffered && sysOutTee == null);
+            bufferErr.setBuffering(enabled && buffered);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex); // Captures don't throw these
+        }
+    }
+
+    private void flushBuffers() {
+        try {
+            bufferOut.flushBuffer();
+            bufferErr.flushBuffer();
+        } catch (IOException ex) {
             throw new RuntimeException(ex);
         }
     }
 
+    private OutputStream sysOutTarget() {
+        OutputStream target = mockOut;
+        if (expectedSysOut != null) {
+            target = new TeeOutputStream(target, expectedSysOut);
+        }
+        if (sysOutFingerprint != null) {
+            target = new TeeOutputStream(target, sysOutFingerprint);
+        }
+        if (sysOutTee != null) {
+            target = new TeeOutputStream(target, sysOutTee);
+        }
+        return target;
+    }
+
+    /**
+     * Fails the test as soon as {@link System#out} differs from the given text.
+     *
+     * <p>
+     * Output is compared as it is printed, and the first print that makes
+     * it differ from the expected output or go past its end throws an
+     * {@link AssertionError}. A wrong program is thus stopped right away
+     * instead of being run to completion. When the test ends, the rule
+     * also checks that all of the expected output was printed, and rethrows
+     * the failure in case the program caught it.
+     *
+     * <p>
+     * A failure leaves {@code System.out} unusable for the rest of the test,
+     * so the rule replaces it with a new stream when the test ends. Don't
+     * keep references to it across tests.
+     *
+     * <p>
+     * <tt>\r\n</tt> is treated as <tt>\n</tt>. Output printed earlier in
+     * the test is compared too.
+     *
+     * @see #expectSysOutIgnoreSpaces(String)
+     */
+    public void expectSysOut(String expected) {
+        setExpectedSysOut(new StringReader(expected), false);
+    }
+
+    /**
+     * Like {@link #expectSysOut(String)}, but whitespace is compared like
+     * {@link EduAssert#assertEqualsIgnoreSpaces(String, String)} does.
+     */
+    public void expectSysOutIgnoreSpaces(String expected) {
+        setExpectedSysOut(new StringReader(expected), true);
+    }
+
+    /**
+     * Like {@link #expectSysOut(String)}, but reads the expected output from a file.
+     *
+     * <p>
+     * The file is read a piece at a time as the output proceeds, so it may be huge.
+     */
+    public void expectSysOut(Path file) throws IOException {
+        requireEnabled();
+        setExpectedSysOut(Files.newBufferedReader(file, charset), false);
+    }
+
+    /**
+     * Like {@link #expectSysOutIgnoreSpaces(String)}, but reads the expected output from a file.
+     *
+     * <p>
+     * The file is read a piece at a time as the output proceeds, so it may be huge.
+     */
+    public void expectSysOutIgnoreSpaces(Path file) throws IOException {
+        requireEnabled();
+        setExpectedSysOut(Files.newBufferedReader(file, charset), true);
+    }
+
+    private void requireEnabled() {
+        if (!enabled) {
+            throw new IllegalStateException("MockStdio not enabled");
+        }
+    }
+
+    private void setExpectedSysOut(Reader expected, boolean ignoreSpaces) {
+        requireEnabled();
+        flushBuffers();
+        if (expectedSysOut != null) {
+            expectedSysOut.close();
+        }
+        expectedSysOut = new ExpectedOutputMatcher(expected, ignoreSpaces, charset);
+        writePrintedSysOut(expectedSysOut);
+        switchOut.setUnderlying(sysOutTarget());
+    }
+
+    /**
+     * Starts fingerprinting {@link System#out} for comparing it to a huge expected output.
+     *
+     * <p>
+     * Output printed earlier in the test is included. The returned
+     * fingerprint is complete once the program has finished printing.
+     * Output is still captured too, so also consider
+     * {@link #setSpillThreshold(int)}.
+     *
+     * @see OutputFingerprint
+     */
+    public OutputFingerprint fingerprintSysOut(OutputFingerprint expected) {
+        requireEnabled();
+        flushBuffers();
+        sysOutFingerprint = new OutputFingerprint(expected, charset);
+        writePrintedSysOut(sysOutFingerprint);
+        switchOut.setUnderlying(sysOutTarget());
+        return sysOutFingerprint;
+    }
+
+    private void writePrintedSysOut(OutputStream sink) {
+        ByteBuffer printed = mockOut.getBuffer();
+        byte[] bytes = new byte[8192];
+        while (printed.hasRemaining()) {
+            int n = Math.min(bytes.length, printed.remaining());
+            printed.get(bytes, 0, n);
+            try {
+                sink.write(bytes, 0, n);
+            } catch (IOException ex) {
+                throw new RuntimeException(ex); // Our sinks don't throw these
+            }
+        }
+    }
+
+    /**
+     * Returns what was printed to {@link System#out} during this test.
+     */
+    public String getSysOut() {
+        flushBuffers();
+        return sysOutText.getString();
+    }
+
+    /**
+     * Returns what was printed to {@link System#out} during this test without copying it into a string.
+     *
+     * <p>
+     * Like {@link #getSysOut()}, but the text shares the characters decoded
+     * so far. Only output printed since the previous call is decoded, so
+     * reading the output repeatedly is cheap. The text doesn't change when
+     * more output is printed.
+     */
+    public CharSequence getSysOutView() {
+        flushBuffers();
+        return sysOutText.getText();
+    }
+
+    /**
+     * Returns an index of what was printed to {@link System#out} during this test for many assertions.
+     *
+     * <p>
+     * The index is built again only if more output has been printed since the previous call.
+     *
+     * @see EduAssert#assertContainsNumber(double, OutputIndex)
+     */
+    public OutputIndex getSysOutIndex() {
+        String out = getSysOut();
+        // getSysOut() returns the same string until there's new output.
+        if (sysOutIndex == null || sysOutIndex.getText() != out) {
+            sysOutIndex = new OutputIndex(out);
+        }
+        return sysOutIndex;
+    }
+
+    /**
+     * Returns a read-only view of the bytes printed to {@link System#out} during this test.
+     *
+     * <p>
+     * Unlike {@link #getSysOut()}, this doesn't copy the output, and line endings are not converted.
+     *
+     * @see #setSpillThreshold(int)
+     */
+    public ByteBuffer getSysOutBuffer() {
+        flushBuffers();
+        return mockOut.getBuffer();
+    }
+
     /**
      * Returns what was printed to {@link System#err} during this test.
      */
     public String getSysErr() {
-        try {
-            return mockErr.toString(charset.name()).replace("\r\n", "\n");
-        } catch (UnsupportedEncodingException ex) {
-            throw new RuntimeException(ex);
-        }
+        flushBuffers();
+        return sysErrText.getString();
     }
 
     /**
@@ -180,10 +521,11 @@ public class MockStdio implements TestRule {
         resetMockOutAndErr();
 
         switchIn.setUnderlying(mockIn);
-        switchOut.setUnderlying(mockOut);
+        switchOut.setUnderlying(sysOutTarget());
         switchErr.setUnderlying(mockErr);
 
         enabled = true;
+        updateBuffering();
     }
 
     /**
@@ -204,7 +546,28 @@ public class MockStdio implements TestRule {
      * this directly.
      */
     public void disable() {
+        try {
+            flushBuffers();
+        } catch (AssertionError e) {
+            // From expectSysOut, and the test is failing already.
+        }
         enabled = false;
+        updateBuffering();
+        sysOutTee = null;
+        if (expectedSysOut != null && expectedSysOut.hasFailed()) {
+            // The failure was thrown through System.out, which leaves
+            // its encoder's buffer in a broken state.
+            try {
+                System.setOut(new PrintStream(bufferOut, true, charset.name()));
+            } catch (UnsupportedEncodingException ex) {
+                throw new Error(ex);
+            }
+        }
+        if (expectedSysOut != null) {
+            expectedSysOut.close();
+            expectedSysOut = null;
+        }
+        sysOutFingerprint = null;
 
         switchIn.setUnderlying(realIn);
         switchOut.setUnderlying(realOut);
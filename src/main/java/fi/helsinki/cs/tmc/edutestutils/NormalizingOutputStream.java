@@ -0,0 +1,109 @@
+package fi.helsinki.cs.tmc.edutestutils;
+
+import fi.helsinki.cs.tmc.edutestutils.utils.DecodingOutputStream;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Decodes output and normalizes it on the fly like captured output is compared.
+ *
+ * <p>
+ * With whitespace ignored, the output is normalized exactly like
+ * {@link EduAssert#collapseWhitespace(java.lang.String)} does, which
+ * means whitespace is only passed on once the next visible character
+ * arrives. Otherwise only <tt>\r\n</tt> is turned into <tt>\n</tt>.
+ */
+abstract class NormalizingOutputStream extends DecodingOutputStream {
+    private final boolean ignoreSpaces;
+
+    private boolean started = false;
+    private boolean pendingSpace = false;
+    private int pendingNewlines = 0;
+    private boolean pendingCr = false;
+
+    NormalizingOutputStream(boolean ignoreSpaces, Charset charset) {
+        super(charset);
+        this.ignoreSpaces = ignoreSpaces;
+    }
+
+    boolean isIgnoringSpaces() {
+        return ignoreSpaces;
+    }
+
+    /**
+     * Called with each normalized character, in order.
+     */
+    protected abstract void accept(char c);
+
+    @Override
+    protected synchronized void onChars(CharBuffer chars) {
+        while (chars.hasRemaining()) {
+            feed(chars.get());
+        }
+    }
+
+    /**
+     * Normalizes a character as if it had been written.
+     */
+    synchronized void feed(char c) {
+        if (ignoreSpaces) {
+            feedIgnoringSpaces(c);
+        } else {
+            feedExact(c);
+        }
+    }
+
+    /**
+     * Passes on a held back <tt>\r</tt>, if any. Trailing whitespace is dropped when ignoring spaces.
+     */
+    synchronized void endOfOutput() {
+        if (pendingCr) {
+            pendingCr = false;
+            accept('\r');
+        }
+    }
+
+    private void feedIgnoringSpaces(char c) {
+        if (c == '\r') {
+            return;
+        }
+        if (c == ' ' || c == '\t') {
+            pendingSpace = true;
+        } else if (c == '\n') {
+            if (started) {
+                pendingNewlines++;
+            }
+            pendingSpace = false;
+        } else {
+            if (started) {
+                if (pendingNewlines > 0) {
+                    for (int i = 0; i < pendingNewlines; ++i) {
+                        accept('\n');
+                    }
+                } else if (pendingSpace) {
+                    accept(' ');
+                }
+            }
+            started = true;
+            pendingSpace = false;
+            pendingNewlines = 0;
+            accept(c);
+        }
+    }
+
+    private void feedExact(char c) {
+        if (pendingCr) {
+            pendingCr = false;
+            if (c == '\n') {
+                accept('\n');
+                return;
+            }
+            accept('\r');
+        }
+        if (c == '\r') {
+            pendingCr = true;
+        } else {
+            accept(c);
+        }
+    }
+}
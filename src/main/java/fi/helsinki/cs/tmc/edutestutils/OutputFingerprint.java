@@ -0,0 +1,289 @@
+package fi.helsinki.cs.tmc.edutestutils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Checks huge outputs without keeping them in memory.
+ *
+ * <p>
+ * A fingerprint is a SHA-256 digest of the output, normalized as it is
+ * written like {@link MockStdio#getSysOut()} or, optionally,
+ * {@link EduAssert#collapseWhitespace(java.lang.String)} would, and a
+ * 64-bit hash of each line for telling where two outputs differ.
+ *
+ * <p>
+ * Usage:
+ *
+ * <p>
+ * <code>
+ * private static OutputFingerprint expected;<br>
+ * <br>
+ * &#64;BeforeClass<br>
+ * public static void computeExpected() throws IOException {<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;expected = OutputFingerprint.of(Paths.get("expected.txt"), false);<br>
+ * }<br>
+ * <br>
+ * &#64;Test<br>
+ * public void printsAllPrimes() {<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;OutputFingerprint actual = io.fingerprintSysOut(expected);<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;Primes.main(new String[0]);<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;actual.assertMatches(expected);<br>
+ * }
+ * </code>
+ *
+ * <p>
+ * The expected fingerprint keeps the hash of each line, 8 bytes per line.
+ * A fingerprint {@link #OutputFingerprint(OutputFingerprint) compared to it}
+ * only remembers the first line that differed, so checking the actual
+ * output takes constant memory.
+ */
+public class OutputFingerprint extends NormalizingOutputStream {
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final int BUFFER_SIZE = 8192;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final MessageDigest digest;
+    private final CharsetEncoder encoder = Charset.forName("UTF-8").newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE);
+    private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+    private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE * 3);
+
+    private final OutputFingerprint expected;
+    private long[] lineHashes;
+    private int lineCount = 0;
+    private long lineHash = FNV_OFFSET_BASIS;
+    private boolean lineStarted = false;
+    private int firstDifferingLine = 0;
+    private String hexDigest;
+
+    /**
+     * Creates a fingerprint that keeps the hash of each line.
+     *
+     * <p>
+     * Output is decoded with the platform's default charset, like {@link MockStdio} does.
+     */
+    public OutputFingerprint(boolean ignoreSpaces) {
+        this(ignoreSpaces, Charset.defaultCharset(), null);
+    }
+
+    /**
+     * Creates a fingerprint that compares each line to the given one as it is written.
+     *
+     * <p>
+     * Whitespace is normalized like in the expected fingerprint.
+     */
+    public OutputFingerprint(OutputFingerprint expected) {
+        this(expected, Charset.defaultCharset());
+    }
+
+    OutputFingerprint(OutputFingerprint expected, Charset charset) {
+        this(expected.isIgnoringSpaces(), charset, expected);
+    }
+
+    private OutputFingerprint(boolean ignoreSpaces, Charset charset, OutputFingerprint expected) {
+        super(ignoreSpaces, charset);
+        this.expected = expected;
+        if (expected == null) {
+            lineHashes = new long[16];
+        } else if (expected.lineHashes == null) {
+            throw new IllegalArgumentException("The expected fingerprint must keep its line hashes");
+        } else {
+            expected.finish();
+        }
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new Error(ex); // Every JVM has SHA-256
+        }
+    }
+
+    /**
+     * Computes the fingerprint of a text.
+     */
+    public static OutputFingerprint of(String text, boolean ignoreSpaces) {
+        OutputFingerprint fp = new OutputFingerprint(ignoreSpaces);
+        for (int i = 0; i < text.length(); ++i) {
+            fp.feed(text.charAt(i));
+        }
+        fp.finish();
+        return fp;
+    }
+
+    /**
+     * Computes the fingerprint of a file, reading it in small pieces.
+     *
+     * <p>
+     * The file is decoded with the platform's default charset.
+     */
+    public static OutputFingerprint of(Path file, boolean ignoreSpaces) throws IOException {
+        OutputFingerprint fp = new OutputFingerprint(ignoreSpaces);
+        InputStream in = Files.newInputStream(file);
+        try {
+            byte[] buf = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                fp.write(buf, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        fp.finish();
+        return fp;
+    }
+
+    @Override
+    protected void accept(char c) {
+        if (hexDigest != null) {
+            throw new IllegalStateException("Output written to a finished fingerprint");
+        }
+        if (!chars.hasRemaining()) {
+            digestChars(false);
+        }
+        chars.put(c);
+
+        // FNV-1a over both bytes of each char
+        lineHash = (lineHash ^ (c >>> 8)) * FNV_PRIME;
+        lineHash = (lineHash ^ (c & 0xff)) * FNV_PRIME;
+        lineStarted = true;
+        if (c == '\n') {
+            endLine();
+        }
+    }
+
+    private void endLine() {
+        if (expected != null) {
+            if (firstDifferingLine == 0
+                    && (lineCount >= expected.lineCount || expected.lineHashes[lineCount] != lineHash)) {
+                firstDifferingLine = lineCount + 1;
+            }
+        } else {
+            if (lineCount == lineHashes.length) {
+                lineHashes = Arrays.copyOf(lineHashes, lineCount * 2);
+            }
+            lineHashes[lineCount] = lineHash;
+        }
+        lineCount++;
+        lineHash = FNV_OFFSET_BASIS;
+        lineStarted = false;
+    }
+
+    private void digestChars(boolean endOfInput) {
+        chars.flip();
+        // A surrogate pair split between buffers stays in chars until the next round.
+        encoder.encode(chars, bytes, endOfInput);
+        if (endOfInput) {
+            encoder.flush(bytes);
+        }
+        chars.compact();
+        bytes.flip();
+        digest.update(bytes);
+        bytes.clear();
+    }
+
+    /**
+     * Ends the output. Called automatically by the getters.
+     */
+    public synchronized void finish() {
+        if (hexDigest != null) {
+            return;
+        }
+        endOfOutput();
+        if (lineStarted) {
+            endLine();
+        }
+        if (expected != null && firstDifferingLine == 0 && lineCount < expected.lineCount) {
+            firstDifferingLine = lineCount + 1;
+        }
+        digestChars(true);
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) {
+            sb.append(HEX[(b >> 4) & 0xf]).append(HEX[b & 0xf]);
+        }
+        hexDigest = sb.toString();
+    }
+
+    /**
+     * Returns the SHA-256 digest of the normalized output, encoded as UTF-8, in hexadecimal.
+     */
+    public synchronized String getDigest() {
+        finish();
+        return hexDigest;
+    }
+
+    /**
+     * Returns the number of lines, counting a last line without a line break.
+     */
+    public synchronized int getLineCount() {
+        finish();
+        return lineCount;
+    }
+
+    /**
+     * Returns the number of the first line that differs from the given
+     * fingerprint, starting from 1, or 0 if the outputs are the same.
+     *
+     * <p>
+     * A line missing from either output counts as different.
+     *
+     * @throws IllegalArgumentException If neither fingerprint has kept its line hashes
+     *                                  and this one wasn't compared to the other.
+     */
+    public synchronized int findFirstDifferingLine(OutputFingerprint other) {
+        finish();
+        other.finish();
+        if (other == expected) {
+            return firstDifferingLine;
+        }
+        if (other.expected == this) {
+            return other.firstDifferingLine;
+        }
+        if (lineHashes == null || other.lineHashes == null) {
+            throw new IllegalArgumentException("Can't compare lines of unrelated fingerprints");
+        }
+        int n = Math.min(lineCount, other.lineCount);
+        for (int i = 0; i < n; ++i) {
+            if (lineHashes[i] != other.lineHashes[i]) {
+                return i + 1;
+            }
+        }
+        return (lineCount != other.lineCount) ? n + 1 : 0;
+    }
+
+    /**
+     * Asserts that the output is the same as the expected output.
+     *
+     * <p>
+     * The message tells the first line that differs.
+     */
+    public void assertMatches(OutputFingerprint expected) {
+        if (getDigest().equals(expected.getDigest())) {
+            return;
+        }
+        int line = findFirstDifferingLine(expected);
+        if (line == 0) {
+            throw new AssertionError("Output differs from the expected output");
+        } else if (line > getLineCount() || line > expected.getLineCount()) {
+            throw new AssertionError("Output has " + getLineCount() + " lines but "
+                    + expected.getLineCount() + " were expected");
+        } else {
+            throw new AssertionError("Output differs from the expected output on line " + line);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getDigest();
+    }
+}
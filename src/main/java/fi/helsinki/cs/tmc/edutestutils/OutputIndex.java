@@ -0,0 +1,275 @@
+package fi.helsinki.cs.tmc.edutestutils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Splits an output into lines, words and numbers once for many assertions.
+ *
+ * <p>
+ * Checking the same output with many {@link EduAssert} methods scans it
+ * again for each check. The overloads taking an {@code OutputIndex}
+ * answer from the index instead, e.g. finding a number is a binary search.
+ *
+ * <p>
+ * Usage:
+ *
+ * <p>
+ * <code>
+ * OutputIndex out = io.getSysOutIndex();<br>
+ * assertContainsNumber(42, out);<br>
+ * assertContainsNumber(3.14, out);<br>
+ * assertTrue(out.containsLine("Bye!"));
+ * </code>
+ *
+ * <p>
+ * Lines are separated by <tt>\n</tt>, and a <tt>\r</tt> before it is not
+ * part of the line. Words are runs of non-whitespace characters. Numbers
+ * are what {@link EduAssert#tolerantNumberPattern} matches.
+ */
+public class OutputIndex {
+    private final String text;
+
+    private final int[] lineStarts;
+    private final int[] lineEnds;
+    private final int[] wordStarts;
+    private final int[] wordEnds;
+    private final int[] numberStarts;
+    private final double[] numbers;
+    private final double[] sortedNumbers;
+
+    private Set<String> lineSet;
+    private Set<String> wordSet;
+    private final Map<String, Boolean> matchResults = new HashMap<String, Boolean>();
+
+    public OutputIndex(CharSequence text) {
+        this.text = text.toString();
+        int n = this.text.length();
+
+        IntList ls = new IntList(), le = new IntList(), ws = new IntList(), we = new IntList();
+        int lineStart = 0;
+        int wordStart = -1;
+        for (int i = 0; i < n; ++i) {
+            char c = this.text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                if (wordStart >= 0) {
+                    ws.add(wordStart);
+                    we.add(i);
+                    wordStart = -1;
+                }
+                if (c == '\n') {
+                    ls.add(lineStart);
+                    le.add((i > lineStart && this.text.charAt(i - 1) == '\r') ? i - 1 : i);
+                    lineStart = i + 1;
+                }
+            } else if (wordStart < 0) {
+                wordStart = i;
+            }
+        }
+        if (wordStart >= 0) {
+            ws.add(wordStart);
+            we.add(n);
+        }
+        if (lineStart < n) {
+            ls.add(lineStart);
+            le.add(n);
+        }
+        lineStarts = ls.toArray();
+        lineEnds = le.toArray();
+        wordStarts = ws.toArray();
+        wordEnds = we.toArray();
+
+        IntList starts = new IntList();
+        List<Double> values = new ArrayList<Double>();
+        Matcher matcher = EduAssert.tolerantNumberPattern.matcher(this.text);
+        while (matcher.find()) {
+            starts.add(matcher.start());
+            values.add(Double.parseDouble(matcher.group().replace(',', '.')));
+        }
+        numberStarts = starts.toArray();
+        numbers = new double[values.size()];
+        for (int i = 0; i < numbers.length; ++i) {
+            numbers[i] = values.get(i);
+        }
+        sortedNumbers = numbers.clone();
+        Arrays.sort(sortedNumbers);
+    }
+
+    /**
+     * Returns the indexed text.
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Tells whether the text contains the given string anywhere.
+     */
+    public boolean contains(CharSequence s) {
+        return text.contains(s);
+    }
+
+    /**
+     * Tells whether the whole text matches the given regex.
+     *
+     * <p>
+     * The result is remembered, so checking the same regex again is free.
+     */
+    public synchronized boolean matches(String regex) {
+        Boolean result = matchResults.get(regex);
+        if (result == null) {
+            result = Pattern.matches(regex, text);
+            matchResults.put(regex, result);
+        }
+        return result;
+    }
+
+    public int getLineCount() {
+        return lineStarts.length;
+    }
+
+    /**
+     * Returns a line, counting from 0, without its line break.
+     */
+    public String getLine(int index) {
+        return text.substring(lineStarts[index], lineEnds[index]);
+    }
+
+    /**
+     * Returns the index of the line containing the given position of the text.
+     *
+     * <p>
+     * A line break belongs to the line it ends. Returns -1 for an empty text.
+     */
+    public int getLineAt(int position) {
+        if (position < 0 || position > text.length()) {
+            throw new IndexOutOfBoundsException("Position: " + position + ", length: " + text.length());
+        }
+        int i = Arrays.binarySearch(lineStarts, position);
+        return (i >= 0) ? i : -i - 2;
+    }
+
+    /**
+     * Tells whether some line is exactly the given string.
+     */
+    public synchronized boolean containsLine(String line) {
+        if (lineSet == null) {
+            lineSet = new HashSet<String>();
+            for (int i = 0; i < lineStarts.length; ++i) {
+                lineSet.add(getLine(i));
+            }
+        }
+        return lineSet.contains(line);
+    }
+
+    public int getWordCount() {
+        return wordStarts.length;
+    }
+
+    /**
+     * Returns a word, counting from 0.
+     */
+    public String getWord(int index) {
+        return text.substring(wordStarts[index], wordEnds[index]);
+    }
+
+    /**
+     * Returns where a word starts in the text.
+     */
+    public int getWordPosition(int index) {
+        return wordStarts[index];
+    }
+
+    /**
+     * Tells whether some word is exactly the given string.
+     */
+    public synchronized boolean containsWord(String word) {
+        if (wordSet == null) {
+            wordSet = new HashSet<String>();
+            for (int i = 0; i < wordStarts.length; ++i) {
+                wordSet.add(getWord(i));
+            }
+        }
+        return wordSet.contains(word);
+    }
+
+    public int getNumberCount() {
+        return numbers.length;
+    }
+
+    /**
+     * Returns a number, counting from 0, in the order they appear in the text.
+     */
+    public double getNumber(int index) {
+        return numbers[index];
+    }
+
+    /**
+     * Returns where a number starts in the text.
+     */
+    public int getNumberPosition(int index) {
+        return numberStarts[index];
+    }
+
+    /**
+     * Returns the numbers in the order they appear in the text.
+     */
+    public double[] getNumbers() {
+        return numbers.clone();
+    }
+
+    /**
+     * Tells whether the text contains a number close to (diff &lt; 0.000001) the given double.
+     *
+     * <p>
+     * Gives the same answer as {@link EduAssert#containsNumber(double, String)}.
+     */
+    public boolean containsNumber(double number) {
+        double low = number - 0.000001;
+        // Find the first value that isn't too small.
+        int lo = 0, hi = sortedNumbers.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sortedNumbers[mid] <= low) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        // Check a neighbour too in case of rounding at the edge.
+        for (int i = Math.max(lo - 1, 0); i <= lo && i < sortedNumbers.length; ++i) {
+            if (Math.abs(sortedNumbers[i] - number) < 0.000001) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    private static class IntList {
+        private int[] values = new int[16];
+        private int size = 0;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
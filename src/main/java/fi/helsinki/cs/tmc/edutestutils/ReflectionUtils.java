@@ -1,5 +1,6 @@
 package fi.helsinki.cs.tmc.edutestutils;
 
+import fi.helsinki.cs.tmc.edutestutils.classloaders.ClassTransformerChain;
 import fi.helsinki.cs.tmc.edutestutils.classloaders.SingleClassLoader;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
@@ -176,6 +177,23 @@ public class ReflectionUtils {
         return newInstanceOfClass(cls.getName());
     }
 
+    /**
+     * Loads a new instance of the class in a new class loader,
+     * passing its bytecode through the given transformers.
+     *
+     * <p>
+     * The chain caches its results, so reuse the same chain
+     * to only transform each class once.
+     *
+     * <p>
+     * Please see {@link #newInstanceOfClass(java.lang.String)}.
+     */
+    public static Class<?> newInstanceOfClass(final String className, ClassTransformerChain transformers) {
+        SingleClassLoader loader = new SingleClassLoader(className);
+        loader.setTransformerChain(transformers);
+        return loadClassWith(className, loader);
+    }
+
     /**
      * Loads a class with the given class loader and gives user-friendly errors.
      *
@@ -0,0 +1,316 @@
+package fi.helsinki.cs.tmc.edutestutils;
+
+import fi.helsinki.cs.tmc.edutestutils.classloaders.InstrumentationHooks;
+import fi.helsinki.cs.tmc.edutestutils.utils.DecodingOutputStream;
+import fi.helsinki.cs.tmc.edutestutils.utils.LineIteratorInputStream;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests an interactive program by answering its prompts one at a time.
+ *
+ * <p>
+ * Usage:
+ *
+ * <p>
+ * <code>
+ * &#64;Rule<br>
+ * public MockStdio io = new MockStdio();<br>
+ * <br>
+ * &#64;Test<br>
+ * public void greets() throws Throwable {<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;StdioDialog dialog = new StdioDialog(io);<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;dialog.expect("Name? ").send("Arto")<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;.expect("Hello Arto!\n");<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;dialog.run(new Runnable() {<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;public void run() {<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;Greeter.main(new String[0]);<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;}<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;});<br>
+ * }
+ * </code>
+ *
+ * <p>
+ * The program runs on its own thread. Its output is compared to the
+ * expected output as it is printed, and each line is sent to its
+ * {@link System#in} only once everything expected before it has been
+ * printed. The dialog fails as soon as the output differs from what is
+ * expected, the program ends too early or a step takes too long, so
+ * a misbehaving program doesn't have to be run to completion.
+ * The program is then interrupted and, if it was loaded with
+ * {@code OperationLimit.transformers()}, stopped.
+ *
+ * <p>
+ * The expected texts together must match the output exactly, except that
+ * <tt>\r\n</tt> is treated as <tt>\n</tt>. Output after the last expected
+ * text is allowed and can be checked with {@link MockStdio#getSysOut()}.
+ */
+public class StdioDialog {
+    private static final int INPUT_CAPACITY = 16; // Lines sent but not yet read by the program.
+    private static final long STOP_GRACE_PERIOD = 1000; // How long a failed program may take to stop, in milliseconds.
+    private static final String END_OF_INPUT = new String("<end of input>"); // Compared by identity
+    private static final int MAX_SHOWN_OUTPUT = 1000; // How much output failure messages show, from the end.
+
+    private final MockStdio io;
+    private final List<Step> steps = new ArrayList<Step>();
+    private double stepTimeout = 5.0;
+
+    /**
+     * Creates a dialog that connects to the given {@link MockStdio}, which must be enabled when the dialog runs.
+     */
+    public StdioDialog(MockStdio io) {
+        this.io = io;
+    }
+
+    /**
+     * Adds a step that waits for the program to print the given text next.
+     */
+    public StdioDialog expect(String text) {
+        steps.add(new Step(false, text.replace("\r\n", "\n")));
+        return this;
+    }
+
+    /**
+     * Adds a step that sends a line of input to the program.
+     */
+    public StdioDialog send(String line) {
+        steps.add(new Step(true, line));
+        return this;
+    }
+
+    /**
+     * Sets how long, in seconds of real time, each step may take.
+     *
+     * <p>
+     * Defaults to 5.
+     */
+    public void setStepTimeout(double seconds) {
+        this.stepTimeout = seconds;
+    }
+
+    /**
+     * Runs the program through the dialog and then waits for it to finish.
+     *
+     * @throws AssertionError If the program doesn't follow the dialog.
+     * @throws Throwable Anything thrown by the program.
+     */
+    public void run(final Runnable program) throws Throwable {
+        if (!io.isEnabled()) {
+            throw new IllegalStateException("MockStdio not enabled");
+        }
+        final BlockingQueue<String> input = new ArrayBlockingQueue<String>(INPUT_CAPACITY);
+        OutputWatcher output = new OutputWatcher(Charset.defaultCharset());
+        ProgramThread thread = new ProgramThread(program);
+
+        io.setSysIn(new LineIteratorInputStream(new QueueIterator(input), Charset.defaultCharset()));
+        io.setSysOutTee(output);
+        try {
+            thread.start();
+            int matched = 0;
+            for (Step step : steps) {
+                if (step.isInput) {
+                    if (!input.offer(step.text, timeoutMillis(), TimeUnit.MILLISECONDS)) {
+                        throw fail(thread, "Program didn't read input line \"" + step.text + "\"", output);
+                    }
+                } else {
+                    matched = awaitOutput(thread, output, matched, step.text);
+                }
+            }
+            // If the queue is full, the program isn't reading and won't end in time anyway.
+            input.offer(END_OF_INPUT);
+
+            thread.join(timeoutMillis());
+            if (thread.isAlive()) {
+                throw fail(thread, "Program didn't end after the dialog", output);
+            }
+        } finally {
+            io.setSysOutTee(null);
+        }
+        if (thread.exception != null) {
+            throw thread.exception;
+        }
+    }
+
+    // Returns the new number of matched characters.
+    private int awaitOutput(ProgramThread thread, OutputWatcher output, int matched, String expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis();
+        while (true) {
+            boolean ended = !thread.isAlive();
+            int printed = output.length() - matched;
+            int common = output.commonPrefixLength(matched, expected);
+            if (common == expected.length()) {
+                return matched + expected.length();
+            }
+            if (common < printed) {
+                String actual = output.getText(matched, matched + Math.max(expected.length(), common + 1));
+                throw fail(thread, "Expected \"" + expected + "\" but the program printed \"" + actual + "\"", output);
+            }
+            if (ended) {
+                // Everything it printed was read after it ended.
+                throw fail(thread, "Program ended while \"" + expected + "\" was expected", output);
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw fail(thread, "Timed out waiting for \"" + expected + "\"", output);
+            }
+            output.awaitMore(matched + printed, Math.min(remaining, 100));
+        }
+    }
+
+    private long timeoutMillis() {
+        return (long)(stepTimeout * 1000);
+    }
+
+    private AssertionError fail(ProgramThread thread, String message, OutputWatcher output) throws InterruptedException {
+        if (thread.isAlive()) {
+            thread.interrupt();
+            InstrumentationHooks.cancel(thread);
+            // Keep its remaining output from ending up in the next test.
+            thread.join(STOP_GRACE_PERIOD);
+        }
+        int length = output.length();
+        String shown = (length > MAX_SHOWN_OUTPUT)
+                ? "Output so far, last " + MAX_SHOWN_OUTPUT + " characters:\n..." + output.getText(length - MAX_SHOWN_OUTPUT, length)
+                : "Output so far:\n" + output.getText(0, length);
+        AssertionError error = new AssertionError(message + "\n" + shown);
+        if (thread.exception != null) {
+            error.initCause(thread.exception);
+        }
+        return error;
+    }
+
+    private static class Step {
+        final boolean isInput;
+        final String text;
+
+        Step(boolean isInput, String text) {
+            this.isInput = isInput;
+            this.text = text;
+        }
+    }
+
+    private static class ProgramThread extends Thread {
+        private final Runnable program;
+        volatile Throwable exception;
+
+        ProgramThread(Runnable program) {
+            super("StdioDialog.Program");
+            this.program = program;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                program.run();
+            } catch (Throwable t) {
+                exception = t;
+            }
+        }
+    }
+
+    // Blocks the reading program until the dialog sends a line.
+    private static class QueueIterator implements Iterator<String> {
+        private final BlockingQueue<String> queue;
+        private String next;
+        private boolean ended;
+
+        QueueIterator(BlockingQueue<String> queue) {
+            this.queue = queue;
+        }
+
+        public boolean hasNext() {
+            if (next == null && !ended) {
+                try {
+                    next = queue.take();
+                } catch (InterruptedException e) {
+                    // Stopped by the dialog. Let the program see the end of input.
+                    Thread.currentThread().interrupt();
+                    ended = true;
+                    return false;
+                }
+                if (next == END_OF_INPUT) {
+                    next = null;
+                    ended = true;
+                }
+            }
+            return next != null;
+        }
+
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String line = next;
+            next = null;
+            return line;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    // Collects output as it's written and wakes up the dialog.
+    // Like the captured output, "\r\n" becomes "\n". A trailing '\r' is held back.
+    private static class OutputWatcher extends DecodingOutputStream {
+        private final StringBuilder text = new StringBuilder();
+        private boolean pendingCr = false;
+
+        OutputWatcher(Charset charset) {
+            super(charset);
+        }
+
+        @Override
+        protected synchronized void onChars(CharBuffer chars) {
+            while (chars.hasRemaining()) {
+                char c = chars.get();
+                if (pendingCr) {
+                    pendingCr = false;
+                    if (c != '\n') {
+                        text.append('\r');
+                    }
+                }
+                if (c == '\r') {
+                    pendingCr = true;
+                } else {
+                    text.append(c);
+                }
+            }
+            notifyAll();
+        }
+
+        synchronized int length() {
+            return text.length();
+        }
+
+        // Returns the normalized output between the given positions, as far as it goes.
+        synchronized String getText(int start, int end) {
+            end = Math.min(end, text.length());
+            return (start < end) ? text.substring(start, end) : "";
+        }
+
+        // Returns how many characters of the expected text the output starting at the given position matches.
+        synchronized int commonPrefixLength(int start, String expected) {
+            int n = Math.min(expected.length(), text.length() - start);
+            int i = 0;
+            while (i < n && text.charAt(start + i) == expected.charAt(i)) {
+                i++;
+            }
+            return i;
+        }
+
+        synchronized void awaitMore(int seenLength, long millis) throws InterruptedException {
+            if (text.length() <= seenLength) {
+                wait(millis);
+            }
+        }
+    }
+}
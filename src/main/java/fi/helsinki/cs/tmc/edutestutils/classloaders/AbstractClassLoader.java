@@ -5,11 +5,63 @@ import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.List;
 
 /**
  * A class loader whose findClass() closely resembles the default.
+ *
+ * <p>
+ * Loaders and the classes they define are tracked by {@link ClassLoaderMetrics}.
+ *
+ * <p>
+ * Class files pass through the loader's {@link ClassTransformerChain}
+ * before being defined.
  */
 public abstract class AbstractClassLoader extends ClassLoader {
+    private final ClassLoaderMetrics.LoaderInfo metrics = ClassLoaderMetrics.loaderCreated(this);
+    private ClassTransformerChain transformers = new ClassTransformerChain();
+    private boolean chainShared = false; // Whether transformers came from setTransformerChain.
+
+    /**
+     * Appends a transformer to this loader's transformer chain.
+     *
+     * <p>
+     * Only affects classes loaded after the call. If the chain was given
+     * with {@link #setTransformerChain(ClassTransformerChain)}, this loader
+     * first gets a copy of its own, so other loaders sharing the chain
+     * are not affected.
+     */
+    public synchronized void addTransformer(ClassTransformer transformer) {
+        if (chainShared) {
+            List<ClassTransformer> list = transformers.getTransformers();
+            transformers = new ClassTransformerChain(list.toArray(new ClassTransformer[list.size()]));
+            chainShared = false;
+        }
+        transformers.add(transformer);
+    }
+
+    /**
+     * Replaces this loader's transformer chain.
+     *
+     * <p>
+     * Use this to share a chain, and thereby its cache of transformed
+     * classes, between many loaders.
+     */
+    public synchronized void setTransformerChain(ClassTransformerChain chain) {
+        if (chain == null) {
+            throw new NullPointerException("Transformer chain cannot be null");
+        }
+        this.transformers = chain;
+        this.chainShared = true;
+    }
+
+    /**
+     * Returns this loader's transformer chain.
+     */
+    public synchronized ClassTransformerChain getTransformerChain() {
+        return transformers;
+    }
+
     @Override
     protected Class<?> findClass(String name) throws ClassNotFoundException {
         InputStream classIn = getClass().getClassLoader().getResourceAsStream(name.replace('.', '/') + ".class");
@@ -27,8 +79,10 @@ public abstract class AbstractClassLoader extends ClassLoader {
                 data = classIn.read();
             }
 
-            byte[] classDef = buf.toByteArray();
-            return defineClass(name, classDef, 0, classDef.length);
+            byte[] classDef = getTransformerChain().transform(name, buf.toByteArray());
+            Class<?> cls = defineClass(name, classDef, 0, classDef.length);
+            ClassLoaderMetrics.classDefined(metrics, name, classDef.length);
+            return cls;
         } catch (FileNotFoundException e) {
             throw new ClassNotFoundException();
         } catch (IOException e) {
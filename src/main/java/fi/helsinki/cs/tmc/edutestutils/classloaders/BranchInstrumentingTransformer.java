@@ -0,0 +1,109 @@
+package fi.helsinki.cs.tmc.edutestutils.classloaders;
+
+import java.util.HashSet;
+import java.util.Set;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Inserts calls to {@link InstrumentationHooks} at method entries and
+ * before backward branches.
+ *
+ * <p>
+ * Every loop iterates through a backward branch and every recursive call
+ * enters a method, so counting these bounds the amount of work done
+ * by the instrumented code up to a constant factor.
+ *
+ * <p>
+ * The inserted calls take no arguments and leave the operand stack
+ * untouched, so existing stack map frames and max stack sizes remain valid.
+ *
+ * <p>
+ * Classes of the JDK, JUnit and this library are left as they are, so
+ * e.g. loading them with an {@link OverridingClassLoader} doesn't charge
+ * their loops to the code under test. See {@link LibraryClasses}.
+ */
+public class BranchInstrumentingTransformer implements ClassTransformer {
+    private static final String HOOKS = InstrumentationHooks.class.getName().replace('.', '/');
+
+    public byte[] transform(String className, byte[] classFile) {
+        if (LibraryClasses.isLibraryClass(className)) {
+            return classFile;
+        }
+
+        ClassReader reader = new ClassReader(classFile);
+        ClassWriter writer = new ClassWriter(reader, 0);
+        reader.accept(new ClassVisitor(Opcodes.ASM9, writer) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+                MethodVisitor mv = super.visitMethod(access, name, desc, signature, exceptions);
+                return new HookInsertingMethodVisitor(mv);
+            }
+        }, 0);
+        return writer.toByteArray();
+    }
+
+    private static class HookInsertingMethodVisitor extends MethodVisitor {
+        private final Set<Label> seenLabels = new HashSet<Label>();
+
+        public HookInsertingMethodVisitor(MethodVisitor mv) {
+            super(Opcodes.ASM9, mv);
+        }
+
+        @Override
+        public void visitCode() {
+            super.visitCode();
+            insertHook("methodEntry");
+        }
+
+        @Override
+        public void visitLabel(Label label) {
+            seenLabels.add(label);
+            super.visitLabel(label);
+        }
+
+        @Override
+        public void visitJumpInsn(int opcode, Label label) {
+            if (seenLabels.contains(label)) {
+                insertHook("backwardBranch");
+            }
+            super.visitJumpInsn(opcode, label);
+        }
+
+        @Override
+        public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+            if (anySeen(dflt, labels)) {
+                insertHook("backwardBranch");
+            }
+            super.visitTableSwitchInsn(min, max, dflt, labels);
+        }
+
+        @Override
+        public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+            if (anySeen(dflt, labels)) {
+                insertHook("backwardBranch");
+            }
+            super.visitLookupSwitchInsn(dflt, keys, labels);
+        }
+
+        private boolean anySeen(Label dflt, Label[] labels) {
+            if (seenLabels.contains(dflt)) {
+                return true;
+            }
+            for (Label label : labels) {
+                if (seenLabels.contains(label)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void insertHook(String method) {
+            super.visitMethodInsn(Opcodes.INVOKESTATIC, HOOKS, method, "()V", false);
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package fi.helsinki.cs.tmc.edutestutils.classloaders;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Keeps track of the class loaders in this package and the classes they define.
+ *
+ * <p>
+ * Every {@link AbstractClassLoader} registers itself here when constructed
+ * and reports each class it defines. A phantom reference to the loader tells
+ * us when the loader and all its classes have been unloaded by the GC.
+ *
+ * <p>
+ * A loader that stays alive long after the test that created it is
+ * typically kept alive by a static reference in student code
+ * (e.g. an object stored in a static field of a JDK class or a thread
+ * that never finished). A steadily growing {@link #getLiveLoaderCount()}
+ * in a long-lived JVM is a sign of such a leak.
+ *
+ * <p>
+ * Unloading is only noticed after a garbage collection has cleared the
+ * loader, so the numbers lag behind the actual state somewhat.
+ *
+ * <p>
+ * The metrics may also be exposed through JMX by calling {@link #registerMBean()}.
+ */
+public class ClassLoaderMetrics {
+    /**
+     * The JMX object name used by {@link #registerMBean()}.
+     */
+    public static final String OBJECT_NAME = "fi.helsinki.cs.tmc.edutestutils:type=ClassLoaderMetrics";
+
+    /**
+     * Information about a single class loader that hasn't been unloaded yet.
+     */
+    public static class LoaderInfo {
+        private final String description;
+        private final long createdAt;
+        private final List<String> classNames = new ArrayList<String>();
+        private long bytesDefined;
+
+        private LoaderInfo(String description) {
+            this.description = description;
+            this.createdAt = System.currentTimeMillis();
+        }
+
+        /**
+         * Returns the class name and identity hash code of the loader.
+         */
+        public String getDescription() {
+            return description;
+        }
+
+        /**
+         * Returns the time the loader was created, in {@link System#currentTimeMillis()} format.
+         */
+        public long getCreatedAt() {
+            return createdAt;
+        }
+
+        /**
+         * Returns the names of the classes defined by the loader so far.
+         */
+        public synchronized List<String> getClassNames() {
+            return new ArrayList<String>(classNames);
+        }
+
+        /**
+         * Returns the number of classes defined by the loader so far.
+         */
+        public synchronized int getClassCount() {
+            return classNames.size();
+        }
+
+        /**
+         * Returns the total size of the class files defined by the loader so far.
+         */
+        public synchronized long getBytesDefined() {
+            return bytesDefined;
+        }
+
+        private synchronized void classDefined(String name, int bytes) {
+            classNames.add(name);
+            bytesDefined += bytes;
+        }
+
+        @Override
+        public String toString() {
+            long age = System.currentTimeMillis() - createdAt;
+            return description + ": " + getClassCount() + " classes, " + getBytesDefined() + " bytes, age " + age + "ms";
+        }
+    }
+
+    private static class LoaderRef extends PhantomReference<ClassLoader> {
+        private final LoaderInfo info;
+
+        public LoaderRef(ClassLoader loader, LoaderInfo info, ReferenceQueue<ClassLoader> queue) {
+            super(loader, queue);
+            this.info = info;
+        }
+    }
+
+    private static class MXBeanImpl implements ClassLoaderMetricsMXBean {
+        public int getLiveLoaderCount() {
+            return ClassLoaderMetrics.getLiveLoaderCount();
+        }
+
+        public long getLoadersCreated() {
+            return ClassLoaderMetrics.getLoadersCreated();
+        }
+
+        public long getLoadersUnloaded() {
+            return ClassLoaderMetrics.getLoadersUnloaded();
+        }
+
+        public long getClassesDefined() {
+            return ClassLoaderMetrics.getClassesDefined();
+        }
+
+        public long getClassesUnloaded() {
+            return ClassLoaderMetrics.getClassesUnloaded();
+        }
+
+        public long getBytesDefined() {
+            return ClassLoaderMetrics.getBytesDefined();
+        }
+
+        public long getBytesUnloaded() {
+            return ClassLoaderMetrics.getBytesUnloaded();
+        }
+
+        public String[] getLiveLoaders() {
+            List<LoaderInfo> infos = ClassLoaderMetrics.getLiveLoaders();
+            String[] result = new String[infos.size()];
+            for (int i = 0; i < result.length; ++i) {
+                result[i] = infos.get(i).toString();
+            }
+            return result;
+        }
+    }
+
+    private static final ReferenceQueue<ClassLoader> queue = new ReferenceQueue<ClassLoader>();
+    private static final Set<LoaderRef> liveRefs = new HashSet<LoaderRef>();
+
+    private static long loadersCreated = 0;
+    private static long loadersUnloaded = 0;
+    private static long classesDefined = 0;
+    private static long classesUnloaded = 0;
+    private static long bytesDefined = 0;
+    private static long bytesUnloaded = 0;
+
+    private ClassLoaderMetrics() {
+    }
+
+    static synchronized LoaderInfo loaderCreated(ClassLoader loader) {
+        pollUnloaded();
+        String desc = loader.getClass().getName() + "@" + Integer.toHexString(System.identityHashCode(loader));
+        LoaderInfo info = new LoaderInfo(desc);
+        liveRefs.add(new LoaderRef(loader, info, queue));
+        loadersCreated++;
+        return info;
+    }
+
+    static synchronized void classDefined(LoaderInfo info, String name, int bytes) {
+        info.classDefined(name, bytes);
+        classesDefined++;
+        bytesDefined += bytes;
+    }
+
+    private static synchronized void pollUnloaded() {
+        Reference<? extends ClassLoader> ref;
+        while ((ref = queue.poll()) != null) {
+            LoaderRef loaderRef = (LoaderRef)ref;
+            if (liveRefs.remove(loaderRef)) {
+                loadersUnloaded++;
+                classesUnloaded += loaderRef.info.getClassCount();
+                bytesUnloaded += loaderRef.info.getBytesDefined();
+            }
+            loaderRef.clear();
+        }
+    }
+
+    /**
+     * Returns the number of loaders that have not been unloaded yet.
+     */
+    public static synchronized int getLiveLoaderCount() {
+        pollUnloaded();
+        return liveRefs.size();
+    }
+
+    /**
+     * Returns the number of loaders created so far.
+     */
+    public static synchronized long getLoadersCreated() {
+        return loadersCreated;
+    }
+
+    /**
+     * Returns the number of loaders that have been unloaded so far.
+     */
+    public static synchronized long getLoadersUnloaded() {
+        pollUnloaded();
+        return loadersUnloaded;
+    }
+
+    /**
+     * Returns the number of classes defined by all loaders so far.
+     */
+    public static synchronized long getClassesDefined() {
+        return classesDefined;
+    }
+
+    /**
+     * Returns the number of classes whose loader has been unloaded.
+     */
+    public static synchronized long getClassesUnloaded() {
+        pollUnloaded();
+        return classesUnloaded;
+    }
+
+    /**
+     * Returns the total size of the class files defined by all loaders so far.
+     */
+    public static synchronized long getBytesDefined() {
+        return bytesDefined;
+    }
+
+    /**
+     * Returns the total size of the class files whose loader has been unloaded.
+     */
+    public static synchronized long getBytesUnloaded() {
+        pollUnloaded();
+        return bytesUnloaded;
+    }
+
+    /**
+     * Returns information about all loaders that have not been unloaded yet,
+     * oldest first.
+     */
+    public static synchronized List<LoaderInfo> getLiveLoaders() {
+        pollUnloaded();
+        List<LoaderInfo> result = new ArrayList<LoaderInfo>(liveRefs.size());
+        for (LoaderRef ref : liveRefs) {
+            result.add(ref.info);
+        }
+        Collections.sort(result, new Comparator<LoaderInfo>() {
+            public int compare(LoaderInfo a, LoaderInfo b) {
+                return a.createdAt < b.createdAt ? -1 : (a.createdAt > b.createdAt ? 1 : 0);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Registers the metrics in the platform MBean server under {@link #OBJECT_NAME}.
+     *
+     * <p>
+     * Does nothing if already registered.
+     */
+    public static synchronized void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new MXBeanImpl(), name);
+            }
+        } catch (JMException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Removes the MBean registered by {@link #registerMBean()}, if any.
+     */
+    public static synchronized void unregisterMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
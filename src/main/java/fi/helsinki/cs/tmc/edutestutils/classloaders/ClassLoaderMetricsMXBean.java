@@ -0,0 +1,26 @@
+package fi.helsinki.cs.tmc.edutestutils.classloaders;
+
+/**
+ * JMX view of {@link ClassLoaderMetrics}.
+ *
+ * <p>
+ * Registered by {@link ClassLoaderMetrics#registerMBean()} under
+ * {@link ClassLoaderMetrics#OBJECT_NAME}.
+ */
+public interface ClassLoaderMetricsMXBean {
+    public int getLiveLoaderCount();
+
+    public long getLoadersCreated();
+
+    public long getLoadersUnloaded();
+
+    public long getClassesDefined();
+
+    public long getClassesUnloaded();
+
+    public long getBytesDefined();
+
+    public long getBytesUnloaded();
+
+    public String[] getLiveLoaders();
+}
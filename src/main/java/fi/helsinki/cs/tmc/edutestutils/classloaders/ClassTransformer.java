@@ -0,0 +1,24 @@
+package fi.helsinki.cs.tmc.edutestutils.classloaders;
+
+/**
+ * Rewrites the bytecode of a class before it is defined.
+ *
+ * <p>
+ * Register transformers on an {@link AbstractClassLoader} with
+ * {@link AbstractClassLoader#addTransformer(ClassTransformer)} or
+ * through a shared {@link ClassTransformerChain}.
+ */
+public interface ClassTransformer {
+    /**
+     * Returns the transformed class file.
+     *
+     * <p>
+     * May return the given array unchanged if there is nothing to do.
+     * The given array must not be modified.
+     *
+     * @param className The fully qualified name of the class.
+     * @param classFile The class file as given by the previous transformer.
+     * @return The new class file. Never null.
+     */
+    public byte[] transform(String className, byte[] classFile);
+}
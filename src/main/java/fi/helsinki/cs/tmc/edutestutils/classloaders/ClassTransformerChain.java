@@ -0,0 +1,99 @@
+package fi.helsinki.cs.tmc.edutestutils.classloaders;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An ordered list of {@link ClassTransformer}s and a cache of their results.
+ *
+ * <p>
+ * Transformation results are cached by class name together with the
+ * original class file, so each version of a class is only transformed once
+ * even though e.g. {@link fi.helsinki.cs.tmc.edutestutils.ReflectionUtils#newInstanceOfClass(java.lang.String, ClassTransformerChain)}
+ * creates a new class loader on every call. Share one chain between
+ * loaders to share the cache.
+ *
+ * <p>
+ * Adding a transformer clears the cache.
+ */
+public class ClassTransformerChain {
+    private static class CacheEntry {
+        final byte[] original;
+        final byte[] transformed;
+
+        CacheEntry(byte[] original, byte[] transformed) {
+            this.original = original;
+            this.transformed = transformed;
+        }
+    }
+
+    private final List<ClassTransformer> transformers = new ArrayList<ClassTransformer>();
+    private final Map<String, CacheEntry> cache = new HashMap<String, CacheEntry>();
+
+    /**
+     * Creates a chain with the given transformers, applied in the given order.
+     */
+    public ClassTransformerChain(ClassTransformer ... transformers) {
+        this.transformers.addAll(Arrays.asList(transformers));
+    }
+
+    /**
+     * Appends a transformer to the chain.
+     */
+    public synchronized ClassTransformerChain add(ClassTransformer transformer) {
+        if (transformer == null) {
+            throw new NullPointerException("Transformer cannot be null");
+        }
+        transformers.add(transformer);
+        cache.clear();
+        return this;
+    }
+
+    /**
+     * Returns a copy of the list of transformers.
+     */
+    public synchronized List<ClassTransformer> getTransformers() {
+        return new ArrayList<ClassTransformer>(transformers);
+    }
+
+    /**
+     * Tells whether the chain has no transformers.
+     */
+    public synchronized boolean isEmpty() {
+        return transformers.isEmpty();
+    }
+
+    /**
+     * Passes a class file through all transformers or returns a cached result.
+     */
+    public synchronized byte[] transform(String className, byte[] classFile) {
+        if (transformers.isEmpty()) {
+            return classFile;
+        }
+
+        CacheEntry entry = cache.get(className);
+        if (entry != null && Arrays.equals(entry.original, classFile)) {
+            return entry.transformed;
+        }
+
+        byte[] result = classFile;
+        for (ClassTransformer transformer : transformers) {
+            result = transformer.transform(className, result);
+            if (result == null) {
+                throw new IllegalStateException(transformer.getClass().getName() + " returned null for " + className);
+            }
+        }
+        cache.put(className, new CacheEntry(classFile, result));
+        return result;
+    }
+
+    /**
+     * Forgets all cached transformation results.
+     */
+    public synchronized void clearCache() {
+        cache.clear();
+    }
+}
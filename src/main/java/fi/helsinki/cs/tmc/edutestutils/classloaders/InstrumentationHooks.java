@@ -0,0 +1,192 @@
+package fi.helsinki.cs.tmc.edutestutils.classloaders;
+
+import fi.helsinki.cs.tmc.edutestutils.timing.OperationLimitException;
+import fi.helsinki.cs.tmc.edutestutils.timing.TestThreadCancelledError;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Static methods called by bytecode instrumented by {@link BranchInstrumentingTransformer}.
+ *
+ * <p>
+ * Counts operations (method entries and backward branches) per thread
+ * against an optional budget, and stops threads that have been
+ * {@linkplain #cancel(Thread) cancelled}. As long as no thread is counting
+ * or cancelled, instrumented code pays only for a read of a volatile field
+ * per operation.
+ *
+ * <p>
+ * {@link OverridingClassLoader} never loads this class itself, so all
+ * instrumented code shares the same counters regardless of which loader
+ * loaded it.
+ *
+ * <p>
+ * For internal use. See {@link fi.helsinki.cs.tmc.edutestutils.timing.OperationLimit}.
+ */
+public final class InstrumentationHooks {
+    private static class ThreadState {
+        boolean counting = false;
+        long operations = 0;
+        long budget = Long.MAX_VALUE;
+        volatile boolean cancelled = false;
+    }
+
+    // Cancellation is requested from other threads, so the states must be
+    // reachable by thread. Weak keys let finished threads be collected.
+    private static final Map<Thread, ThreadState> states = Collections.synchronizedMap(new WeakHashMap<Thread, ThreadState>());
+
+    private static final ThreadLocal<ThreadState> state = new ThreadLocal<ThreadState>() {
+        @Override
+        protected ThreadState initialValue() {
+            return stateOf(Thread.currentThread());
+        }
+    };
+
+    // Number of threads currently counting or cancelled. Lets the hooks skip
+    // the thread-local lookup entirely when nobody is interested.
+    private static volatile int activeThreads = 0;
+    private static final List<Thread> cancelledThreads = new ArrayList<Thread>();
+
+    private InstrumentationHooks() {
+    }
+
+    /**
+     * Called at the start of every instrumented method.
+     */
+    public static void methodEntry() {
+        if (activeThreads != 0) {
+            operation();
+        }
+    }
+
+    /**
+     * Called before every backward jump in an instrumented method.
+     */
+    public static void backwardBranch() {
+        if (activeThreads != 0) {
+            operation();
+        }
+    }
+
+    private static void operation() {
+        ThreadState st = state.get();
+        if (st.cancelled) {
+            throw new TestThreadCancelledError();
+        }
+        if (st.counting) {
+            st.operations++;
+            if (st.operations > st.budget) {
+                throw new OperationLimitException("Operation limit (" + st.budget + ") exceeded");
+            }
+        }
+    }
+
+    private static ThreadState stateOf(Thread thread) {
+        synchronized (states) {
+            ThreadState st = states.get(thread);
+            if (st == null) {
+                st = new ThreadState();
+                states.put(thread, st);
+            }
+            return st;
+        }
+    }
+
+    /**
+     * Makes instrumented code running in the given thread throw
+     * {@link TestThreadCancelledError} at its next operation.
+     *
+     * <p>
+     * Unlike {@link Thread#interrupt()}, this stops even loops that
+     * never check for interruption. Code that isn't instrumented is not
+     * affected. The cancellation lasts until the thread terminates.
+     */
+    public static void cancel(Thread thread) {
+        synchronized (InstrumentationHooks.class) {
+            purgeCancelledThreads();
+            ThreadState st = stateOf(thread);
+            if (!st.cancelled && thread.isAlive()) {
+                st.cancelled = true;
+                cancelledThreads.add(thread);
+                activeThreads++;
+            }
+        }
+    }
+
+    /**
+     * Tells whether the given thread has been cancelled.
+     */
+    public static boolean isCancelled(Thread thread) {
+        return stateOf(thread).cancelled;
+    }
+
+    private static void purgeCancelledThreads() {
+        for (int i = cancelledThreads.size() - 1; i >= 0; --i) {
+            if (!cancelledThreads.get(i).isAlive()) {
+                cancelledThreads.remove(i);
+                activeThreads--;
+            }
+        }
+    }
+
+    /**
+     * Starts counting operations in the current thread from zero.
+     *
+     * @param budget The number of operations after which
+     *               {@link OperationLimitException} is thrown,
+     *               or {@code Long.MAX_VALUE} for no limit.
+     */
+    public static void startCounting(long budget) {
+        ThreadState st = state.get();
+        if (!st.counting) {
+            synchronized (InstrumentationHooks.class) {
+                purgeCancelledThreads();
+                activeThreads++;
+            }
+        }
+        st.counting = true;
+        st.operations = 0;
+        st.budget = budget;
+    }
+
+    /**
+     * Changes the budget of the current thread without resetting its count.
+     */
+    public static void setBudget(long budget) {
+        state.get().budget = budget;
+    }
+
+    /**
+     * Returns the budget of the current thread.
+     */
+    public static long getBudget() {
+        return state.get().budget;
+    }
+
+    /**
+     * Returns the number of operations counted in the current thread so far.
+     */
+    public static long getOperationCount() {
+        return state.get().operations;
+    }
+
+    /**
+     * Stops counting operations in the current thread.
+     *
+     * @return The number of operations counted.
+     */
+    public static long stopCounting() {
+        ThreadState st = state.get();
+        if (st.counting) {
+            synchronized (InstrumentationHooks.class) {
+                activeThreads--;
+            }
+        }
+        st.counting = false;
+        st.budget = Long.MAX_VALUE;
+        return st.operations;
+    }
+}
@@ -0,0 +1,68 @@
+package fi.helsinki.cs.tmc.edutestutils.classloaders;
+
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Tells apart the classes of the JDK, the test framework and this library
+ * from the code under test.
+ *
+ * <p>
+ * Classes of this library are recognized by where their class file is,
+ * not just by their package, so tests placed in the library's packages
+ * still count as code under test.
+ *
+ * <p>
+ * For internal use. Used by {@link BranchInstrumentingTransformer} and
+ * {@link fi.helsinki.cs.tmc.edutestutils.timing.StackSampler}.
+ */
+public final class LibraryClasses {
+    private static final String[] PREFIXES = {
+        "java.", "javax.", "sun.", "com.sun.", "jdk.",
+        "org.junit.", "junit.", "org.hamcrest.", "org.objectweb.asm."
+    };
+    private static final String OWN_PACKAGE = "fi.helsinki.cs.tmc.edutestutils.";
+    private static final String OWN_LOCATION = locationOf(LibraryClasses.class.getName());
+
+    private static final ConcurrentMap<String, Boolean> ownClasses = new ConcurrentHashMap<String, Boolean>();
+
+    private LibraryClasses() {
+    }
+
+    /**
+     * Tells whether the named class belongs to the JDK, JUnit or this library.
+     */
+    public static boolean isLibraryClass(String className) {
+        for (String prefix : PREFIXES) {
+            if (className.startsWith(prefix)) {
+                return true;
+            }
+        }
+        if (!className.startsWith(OWN_PACKAGE)) {
+            return false;
+        }
+
+        // Nested, anonymous and lambda classes are where their outer class is.
+        int dollar = className.indexOf('$');
+        String outer = (dollar < 0) ? className : className.substring(0, dollar);
+        Boolean own = ownClasses.get(outer);
+        if (own == null) {
+            String location = locationOf(outer);
+            own = (location != null && location.equals(OWN_LOCATION));
+            ownClasses.put(outer, own);
+        }
+        return own;
+    }
+
+    // Returns the URL of the class path entry containing the class, or null if not found.
+    private static String locationOf(String className) {
+        String path = className.replace('.', '/') + ".class";
+        URL url = LibraryClasses.class.getClassLoader().getResource(path);
+        if (url == null) {
+            return null;
+        }
+        String s = url.toString();
+        return s.substring(0, s.length() - path.length());
+    }
+}
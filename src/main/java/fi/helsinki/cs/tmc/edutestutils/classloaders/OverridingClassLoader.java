@@ -10,11 +10,13 @@ package fi.helsinki.cs.tmc.edutestutils.classloaders;
  * Used alone, it loads classes and their dependencies into a new class space.
  * Classes in {@code java.*}, however, cannot be redefined due to a restriction
  * built into the JVM. They are loaded directly from the parent loader.
+ * So is {@link InstrumentationHooks}, whose state must be shared by
+ * all instrumented code.
  */
 public class OverridingClassLoader extends AbstractClassLoader {
     @Override
     protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
-        if (name.startsWith("java.")) {
+        if (name.startsWith("java.") || name.equals(InstrumentationHooks.class.getName())) {
             return getParent().loadClass(name);
         }
         
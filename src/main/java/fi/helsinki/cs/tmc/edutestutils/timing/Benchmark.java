@@ -0,0 +1,394 @@
+package fi.helsinki.cs.tmc.edutestutils.timing;
+
+import fi.helsinki.cs.tmc.edutestutils.Reflex;
+import java.text.DecimalFormat;
+import java.util.Arrays;
+
+/**
+ * Times an operation reliably enough to compare it against a limit or another operation.
+ *
+ * <p>
+ * Usage:
+ *
+ * <p>
+ * <code>
+ * Benchmark.of(Reflex.reflect(...).staticMethod("sum").returning(int.class).taking(int[].class), input)<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;.assertFasterThan(Benchmark.of(naiveSum, input), 2.0);
+ * </code>
+ *
+ * <p>
+ * A single stopwatch reading of a fast operation mostly measures the JIT
+ * compiler and timer noise. A benchmark first runs the operation for a
+ * while to let the JIT compile it, then runs it in batches big enough to
+ * be measured accurately, in several rounds. The results are consumed so
+ * that the JIT can't optimize the operation away.
+ *
+ * <p>
+ * The reported times are CPU times per call, so the benchmark isn't
+ * affected by other processes competing for the CPU (much).
+ */
+public class Benchmark {
+    /**
+     * An operation to time. The return value is consumed so the JIT can't skip the work.
+     */
+    public static interface Operation {
+        Object run() throws Throwable;
+    }
+
+    /**
+     * An operation that takes an input prepared outside the measured time.
+     *
+     * <p>
+     * Every call gets an input of its own, so the operation may modify it.
+     */
+    public static interface PreparedOperation<P> {
+        /**
+         * Creates an input for one call. Not measured.
+         */
+        P prepare() throws Throwable;
+
+        /**
+         * The operation to time. The return value is consumed so the JIT can't skip the work.
+         */
+        Object run(P input) throws Throwable;
+    }
+
+    /**
+     * The per-call times of a benchmark, one per measurement round.
+     */
+    public static class Result {
+        private final double[] times;
+        private final int batchSize;
+
+        Result(double[] times, int batchSize) {
+            this.times = times.clone();
+            Arrays.sort(this.times);
+            this.batchSize = batchSize;
+        }
+
+        /**
+         * Returns the per-call time, in seconds, of each round, fastest first.
+         */
+        public double[] getTimes() {
+            return times.clone();
+        }
+
+        /**
+         * Returns the number of calls made in each round.
+         */
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        /**
+         * Returns the time per call, in seconds, of the fastest round.
+         *
+         * <p>
+         * Noise only ever makes things slower, so this is the most
+         * repeatable figure when comparing against other measurements.
+         */
+        public double getMin() {
+            return times[0];
+        }
+
+        /**
+         * Returns the time per call, in seconds, of the slowest round.
+         */
+        public double getMax() {
+            return times[times.length - 1];
+        }
+
+        /**
+         * Returns the mean time per call, in seconds.
+         */
+        public double getMean() {
+            double sum = 0;
+            for (double t : times) {
+                sum += t;
+            }
+            return sum / times.length;
+        }
+
+        /**
+         * Returns the median time per call, in seconds.
+         */
+        public double getMedian() {
+            return getPercentile(50);
+        }
+
+        /**
+         * Returns the 95th percentile of the time per call, in seconds.
+         *
+         * <p>
+         * With fewer than 20 rounds this is the same as {@link #getMax()}.
+         */
+        public double getPercentile95() {
+            return getPercentile(95);
+        }
+
+        /**
+         * Returns the given percentile (0-100) of the round times, in seconds.
+         */
+        public double getPercentile(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("Percentile must be between 0 and 100");
+            }
+            // Nearest rank
+            int rank = (int)Math.ceil(percentile / 100.0 * times.length);
+            return times[Math.max(rank - 1, 0)];
+        }
+
+        /**
+         * Returns e.g. {@code "mean 1.2ms, median 1.1ms, max 1.9ms (10 rounds of 64 calls)"}.
+         *
+         * <p>
+         * The 95th percentile is shown instead of the maximum when there
+         * are at least 20 rounds.
+         */
+        @Override
+        public String toString() {
+            String spread = (times.length >= 20)
+                    ? "p95 " + formatTime(getPercentile95())
+                    : "max " + formatTime(getMax());
+            return "mean " + formatTime(getMean())
+                    + ", median " + formatTime(getMedian())
+                    + ", " + spread
+                    + " (" + times.length + " rounds of " + batchSize + " calls)";
+        }
+    }
+
+    private static final int MAX_BATCH_SIZE = 1 << 24;
+
+    private final PreparedOperation<Object> operation;
+    private final boolean prepared; // Whether inputs must be prepared between calls.
+
+    private CpuStopwatch.Mode stopwatchMode = CpuStopwatch.Mode.BOTH;
+    private double warmupTime = 0.5;
+    private int rounds = 10;
+    private double minRoundTime = 0.02;
+    private int maxPreparedInputs = 16;
+
+    /**
+     * Creates a benchmark of the given operation.
+     */
+    public Benchmark(final Operation operation) {
+        this.operation = new PreparedOperation<Object>() {
+            public Object prepare() {
+                return null;
+            }
+
+            public Object run(Object input) throws Throwable {
+                return operation.run();
+            }
+        };
+        this.prepared = false;
+    }
+
+    /**
+     * Creates a benchmark of an operation that needs a fresh input for each call.
+     *
+     * <p>
+     * Inputs are prepared a few at a time with the stopwatch stopped.
+     *
+     * @see #setMaxPreparedInputs(int)
+     */
+    @SuppressWarnings("unchecked")
+    public <P> Benchmark(PreparedOperation<P> operation) {
+        this.operation = (PreparedOperation<Object>)operation;
+        this.prepared = true;
+    }
+
+    /**
+     * Creates a benchmark of an operation.
+     */
+    public static Benchmark of(Operation operation) {
+        return new Benchmark(operation);
+    }
+
+    /**
+     * Creates a benchmark of calling a one-parameter method with the given input.
+     *
+     * <p>
+     * If the method is non-static then a {@code this} parameter
+     * must have been given to it. The same input is passed to every call,
+     * so the method shouldn't modify it.
+     */
+    public static <P> Benchmark of(final Reflex.MethodRef1<?, ?, P> method, final P input) {
+        return new Benchmark(new Operation() {
+            public Object run() throws Throwable {
+                return method.invoke(input);
+            }
+        });
+    }
+
+    /**
+     * Creates a benchmark of an operation that needs a fresh input for each call.
+     */
+    public static <P> Benchmark of(PreparedOperation<P> operation) {
+        return new Benchmark(operation);
+    }
+
+    /**
+     * Sets how long, in CPU seconds, to run the operation before measuring.
+     * Zero skips the warm-up.
+     *
+     * <p>
+     * Defaults to 0.5.
+     */
+    public void setWarmupTime(double seconds) {
+        this.warmupTime = seconds;
+    }
+
+    /**
+     * Sets the number of measurement rounds.
+     *
+     * <p>
+     * Defaults to 10.
+     */
+    public void setRounds(int rounds) {
+        if (rounds < 1) {
+            throw new IllegalArgumentException("Need at least one round");
+        }
+        this.rounds = rounds;
+    }
+
+    /**
+     * Sets the shortest time, in CPU seconds, a measurement round may take.
+     * Fast operations are called repeatedly in each round until this is reached.
+     *
+     * <p>
+     * Defaults to 0.02.
+     */
+    public void setMinRoundTime(double seconds) {
+        this.minRoundTime = seconds;
+    }
+
+    /**
+     * Sets how many inputs of a {@link PreparedOperation} may exist at a time.
+     *
+     * <p>
+     * A batch of fast calls is run in pieces of this many calls,
+     * with the inputs of the next piece prepared in between.
+     * Lower this when inputs are big.
+     *
+     * <p>
+     * Defaults to 16.
+     */
+    public void setMaxPreparedInputs(int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("Need at least one input at a time");
+        }
+        this.maxPreparedInputs = count;
+    }
+
+    /**
+     * Sets the type of CPU time to measure.
+     *
+     * <p>
+     * Defaults to {@link CpuStopwatch.Mode#BOTH}.
+     */
+    public void setStopwatchMode(CpuStopwatch.Mode mode) {
+        this.stopwatchMode = mode;
+    }
+
+    /**
+     * Warms up and measures the operation.
+     *
+     * @throws Throwable Anything thrown by the operation.
+     */
+    public Result run() throws Throwable {
+        if (warmupTime > 0) {
+            CpuStopwatch warmup = new CpuStopwatch(stopwatchMode);
+            do {
+                Blackhole.consume(operation.run(operation.prepare()));
+            } while (warmup.getElapsedTime() < warmupTime);
+        }
+
+        int batchSize = 1;
+        double elapsed = measureBatch(batchSize);
+        while (elapsed < minRoundTime && batchSize < MAX_BATCH_SIZE) {
+            batchSize *= 2;
+            elapsed = measureBatch(batchSize);
+        }
+
+        double[] times = new double[rounds];
+        times[0] = elapsed / batchSize;
+        for (int i = 1; i < rounds; ++i) {
+            times[i] = measureBatch(batchSize) / batchSize;
+        }
+        return new Result(times, batchSize);
+    }
+
+    private double measureBatch(int batchSize) throws Throwable {
+        if (!prepared) {
+            CpuStopwatch sw = new CpuStopwatch(stopwatchMode);
+            for (int i = 0; i < batchSize; ++i) {
+                Blackhole.consume(operation.run(null));
+            }
+            return sw.getElapsedTime();
+        }
+
+        Object[] inputs = new Object[Math.min(batchSize, maxPreparedInputs)];
+        double elapsed = 0;
+        for (int done = 0; done < batchSize; ) {
+            int count = Math.min(inputs.length, batchSize - done);
+            for (int i = 0; i < count; ++i) {
+                inputs[i] = operation.prepare();
+            }
+            CpuStopwatch sw = new CpuStopwatch(stopwatchMode);
+            for (int i = 0; i < count; ++i) {
+                Blackhole.consume(operation.run(inputs[i]));
+            }
+            elapsed += sw.getElapsedTime();
+            done += count;
+        }
+        return elapsed;
+    }
+
+    /**
+     * Fails unless the median time per call is below the given number of seconds.
+     *
+     * @return The measurements.
+     * @throws AssertionError If the operation is too slow.
+     * @throws Throwable Anything thrown by the operation.
+     */
+    public Result assertFasterThan(double seconds) throws Throwable {
+        Result result = run();
+        if (result.getMedian() >= seconds) {
+            throw new AssertionError("Expected a call to take less than " + formatTime(seconds) + " but it took " + result);
+        }
+        return result;
+    }
+
+    /**
+     * Fails unless the operation is at least {@code factor} times faster than
+     * the other one, comparing medians.
+     *
+     * @return The measurements of this benchmark.
+     * @throws AssertionError If the operation is too slow.
+     * @throws Throwable Anything thrown by either operation.
+     */
+    public Result assertFasterThan(Benchmark other, double factor) throws Throwable {
+        Result otherResult = other.run();
+        Result result = run();
+        if (result.getMedian() * factor > otherResult.getMedian()) {
+            throw new AssertionError("Expected to be at least " + new DecimalFormat("#.##").format(factor)
+                    + "x faster than " + formatTime(otherResult.getMedian())
+                    + " but took " + result);
+        }
+        return result;
+    }
+
+    static String formatTime(double seconds) {
+        DecimalFormat fmt = new DecimalFormat("#.##");
+        if (seconds >= 1) {
+            return fmt.format(seconds) + "s";
+        } else if (seconds >= 1e-3) {
+            return fmt.format(seconds * 1e3) + "ms";
+        } else if (seconds >= 1e-6) {
+            return fmt.format(seconds * 1e6) + "us";
+        } else {
+            return fmt.format(seconds * 1e9) + "ns";
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package fi.helsinki.cs.tmc.edutestutils.timing;
+
+/**
+ * Consumes results of measured code so the JIT cannot optimize the code away.
+ */
+final class Blackhole {
+    private static volatile int sink;
+
+    private Blackhole() {
+    }
+
+    static void consume(Object result) {
+        // Identity hash codes are cheap even for huge results.
+        sink ^= System.identityHashCode(result);
+    }
+}
@@ -0,0 +1,13 @@
+package fi.helsinki.cs.tmc.edutestutils.timing;
+
+/**
+ * Thrown by {@link CpuTimeLimit} when a test is deadlocked or waits
+ * for input that never comes.
+ *
+ * @see CpuTimeLimit#setDetectingStalls(boolean)
+ */
+public class BlockedTestException extends TimeLimitException {
+    public BlockedTestException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,267 @@
+package fi.helsinki.cs.tmc.edutestutils.timing;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Measures how fast this machine is compared to a reference machine.
+ *
+ * <p>
+ * Time limits in seconds are only meaningful on the machine they were
+ * chosen on. A limit given in <i>reference seconds</i> is instead scaled
+ * by the speed of the machine running the tests:
+ *
+ * <p>
+ * <code>
+ * timeLimit.set(Calibration.referenceSeconds(2.0));
+ * </code>
+ *
+ * <p>
+ * or, to scale all limits of a {@link CpuTimeLimit},
+ * {@link CpuTimeLimit#setUsingReferenceSeconds(boolean)}.
+ *
+ * <p>
+ * The speed is measured by timing a fixed workload of arithmetic, sorting
+ * and hash map operations the first time it is needed, which takes a few
+ * tenths of a second. The result is cached in a file in the temporary
+ * directory, keyed by the CPU model and JVM, so later test runs on the
+ * same machine don't repeat the measurement. The file is replaced
+ * atomically, so test runs in parallel JVMs never see it half written.
+ *
+ * <p>
+ * The system property {@code edutestutils.speedFactor} overrides the
+ * measurement, e.g. to disable scaling with {@code -Dedutestutils.speedFactor=1}.
+ * Factors that aren't finite and positive are ignored, whether given or cached.
+ */
+public final class Calibration {
+    /**
+     * The CPU time, in seconds, the reference workload takes on the reference machine.
+     */
+    static final double REFERENCE_WORKLOAD_TIME = 0.14;
+
+    private static final String SPEED_FACTOR_PROPERTY = "edutestutils.speedFactor";
+    private static final String CACHE_FILE_NAME = "edutestutils-calibration.properties";
+    private static final int MEASUREMENT_ROUNDS = 5;
+
+    private static double speedFactor = 0;
+    private static File cacheFile = new File(System.getProperty("java.io.tmpdir"), CACHE_FILE_NAME);
+
+    private Calibration() {
+    }
+
+    /**
+     * Returns how many times longer than the reference machine this machine takes
+     * to run the same code. Above 1 means this machine is slower.
+     */
+    public static synchronized double getSpeedFactor() {
+        if (speedFactor == 0) {
+            speedFactor = loadSpeedFactor();
+        }
+        return speedFactor;
+    }
+
+    /**
+     * Converts reference seconds to seconds on this machine.
+     */
+    public static double referenceSeconds(double seconds) {
+        return seconds * getSpeedFactor();
+    }
+
+    /**
+     * Runs the reference workload again, ignoring any cached result, and updates the cache.
+     */
+    public static synchronized double recalibrate() {
+        speedFactor = measureSpeedFactor();
+        saveToCache(speedFactor);
+        return speedFactor;
+    }
+
+    /**
+     * Forgets the speed factor so it is loaded again. For tests.
+     */
+    static synchronized void reset() {
+        speedFactor = 0;
+    }
+
+    /**
+     * Sets the file the speed factors are cached in. For tests.
+     */
+    static synchronized void setCacheFile(File file) {
+        cacheFile = file;
+    }
+
+    private static boolean isValid(double factor) {
+        return factor > 0 && !Double.isInfinite(factor); // Also false for NaN
+    }
+
+    private static double loadSpeedFactor() {
+        String override = System.getProperty(SPEED_FACTOR_PROPERTY);
+        if (override != null) {
+            double factor;
+            try {
+                factor = Double.parseDouble(override);
+            } catch (NumberFormatException e) {
+                factor = Double.NaN;
+            }
+            if (isValid(factor)) {
+                return factor;
+            }
+            System.err.println("Warning: invalid " + SPEED_FACTOR_PROPERTY + ": " + override);
+        }
+
+        Double cached = loadFromCache();
+        if (cached != null) {
+            return cached;
+        }
+        return recalibrate();
+    }
+
+    private static double measureSpeedFactor() {
+        runWorkload(); // Warm-up
+        double best = Double.MAX_VALUE;
+        for (int i = 0; i < MEASUREMENT_ROUNDS; ++i) {
+            CpuStopwatch stopwatch = new CpuStopwatch(CpuStopwatch.Mode.BOTH);
+            Blackhole.consume(runWorkload());
+            best = Math.min(best, stopwatch.getElapsedTime());
+        }
+        // Guard against a zero reading from a coarse timer.
+        return Math.max(best, 0.001) / REFERENCE_WORKLOAD_TIME;
+    }
+
+    /**
+     * The reference workload. Must never change, or old cached results become wrong.
+     */
+    static Object runWorkload() {
+        int[] array = new int[1000000];
+        int x = 12345;
+        for (int i = 0; i < array.length; ++i) {
+            x = x * 1103515245 + 12345;
+            array[i] = x >>> 8;
+        }
+        Arrays.sort(array);
+
+        Map<Integer, Integer> map = new HashMap<Integer, Integer>();
+        for (int i = 0; i < array.length; i += 4) {
+            map.put(array[i] % 10007, i);
+        }
+        long sum = 0;
+        for (int i = 0; i < 10000000; ++i) {
+            sum += (i * (long)i) % 7919;
+        }
+        return new long[] { sum, map.size(), array[array.length / 2] };
+    }
+
+    static String cacheKey() {
+        return (cpuModel() + "|" + System.getProperty("java.vm.name") + "|" + System.getProperty("java.version"))
+                .replaceAll("[^A-Za-z0-9._|-]", "_");
+    }
+
+    private static String cpuModel() {
+        File cpuinfo = new File("/proc/cpuinfo");
+        if (cpuinfo.canRead()) {
+            BufferedReader reader = null;
+            try {
+                reader = new BufferedReader(new FileReader(cpuinfo));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("model name")) {
+                        return line.substring(line.indexOf(':') + 1).trim();
+                    }
+                }
+            } catch (IOException e) {
+                // Fall back below
+            } finally {
+                closeQuietly(reader);
+            }
+        }
+        String env = System.getenv("PROCESSOR_IDENTIFIER");
+        if (env != null) {
+            return env;
+        }
+        return System.getProperty("os.arch") + " x" + Runtime.getRuntime().availableProcessors();
+    }
+
+    private static Double loadFromCache() {
+        Properties props = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(cacheFile);
+            props.load(in);
+            String value = props.getProperty(cacheKey());
+            if (value == null) {
+                return null;
+            }
+            double factor = Double.parseDouble(value);
+            return isValid(factor) ? factor : null;
+        } catch (IOException e) {
+            return null;
+        } catch (NumberFormatException e) {
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private static void saveToCache(double factor) {
+        Properties props = new Properties();
+        File file = cacheFile;
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            props.load(in);
+        } catch (IOException e) {
+            // Start a new file
+        } finally {
+            closeQuietly(in);
+        }
+
+        props.setProperty(cacheKey(), Double.toString(factor));
+        // Write a new file and rename it over the old one. A concurrent
+        // writer may still win and drop our entry, which only costs a
+        // measurement later.
+        File tmp = null;
+        OutputStream out = null;
+        try {
+            tmp = File.createTempFile(CACHE_FILE_NAME, ".tmp", file.getAbsoluteFile().getParentFile());
+            out = new FileOutputStream(tmp);
+            props.store(out, "edu-test-utils speed factors");
+            out.close();
+            out = null;
+            try {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                // e.g. ATOMIC_MOVE refusing to replace a file on some platforms
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            // Caching is only an optimization
+        } finally {
+            closeQuietly(out);
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable c) {
+        if (c != null) {
+            try {
+                c.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+}
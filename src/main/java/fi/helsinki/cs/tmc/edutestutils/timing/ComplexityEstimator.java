@@ -0,0 +1,463 @@
+package fi.helsinki.cs.tmc.edutestutils.timing;
+
+import fi.helsinki.cs.tmc.edutestutils.Reflex;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Estimates the time complexity of a method by timing it with growing inputs.
+ *
+ * <p>
+ * Usage:
+ *
+ * <pre>
+ * {@code
+ * ComplexityEstimator<int[]> est = ComplexityEstimator.of(
+ *     Reflex.reflect("Sorter").staticMethod("sort").returningVoid().taking(int[].class),
+ *     new ComplexityEstimator.InputGenerator<int[]>() {
+ *         public int[] generate(int n) {
+ *             return randomArray(n);
+ *         }
+ *     });
+ * est.assertAtMost(ComplexityEstimator.Complexity.LINEARITHMIC);
+ * }
+ * </pre>
+ *
+ * <p>
+ * The method is first warmed up so the JIT has a chance to compile it.
+ * Then it is timed with {@link CpuStopwatch} on a geometric series of input
+ * sizes. Each size is timed several times and the fastest time is used,
+ * since noise only ever makes things slower. Fast calls are timed in batches
+ * long enough for the timer's resolution not to matter, see {@link Benchmark}.
+ * Sizes stop growing when the next size would likely exceed the total CPU
+ * budget, judging by how fast the times have grown so far.
+ *
+ * <p>
+ * Each {@link Complexity} is then fitted to the times as {@code a + b*f(n)}
+ * by least squares on relative errors, and the best fitting one is reported.
+ * When two fit almost equally well, the simpler one wins.
+ *
+ * <p>
+ * A fresh input is generated for every call, outside the measured time,
+ * so methods that modify their input (e.g. sort it) are measured fairly.
+ * Only a few inputs are kept at a time, fewer the bigger they are.
+ *
+ * <p>
+ * <b>NOTE:</b> telling apart complexities that differ by a logarithmic factor
+ * needs a wide range of sizes. Prefer {@link #assertAtMost(Complexity)}
+ * over {@link #assertComplexity(Complexity)}.
+ *
+ * @param <P> The type of the input.
+ */
+public class ComplexityEstimator<P> {
+
+    /**
+     * Generates an input of a given size.
+     */
+    public static interface InputGenerator<P> {
+        public P generate(int n);
+    }
+
+    /**
+     * The candidate complexities, from simplest to most complex.
+     */
+    public static enum Complexity {
+        CONSTANT("O(1)"),
+        LOGARITHMIC("O(log n)"),
+        LINEAR("O(n)"),
+        LINEARITHMIC("O(n log n)"),
+        QUADRATIC("O(n^2)"),
+        CUBIC("O(n^3)");
+
+        private final String notation;
+
+        private Complexity(String notation) {
+            this.notation = notation;
+        }
+
+        /**
+         * Evaluates the growth function at n.
+         */
+        public double f(double n) {
+            switch (this) {
+                case CONSTANT: return 1;
+                case LOGARITHMIC: return Math.log(n);
+                case LINEAR: return n;
+                case LINEARITHMIC: return n * Math.log(n);
+                case QUADRATIC: return n * n;
+                case CUBIC: return n * n * n;
+                default: throw new IllegalStateException("Invalid complexity");
+            }
+        }
+
+        /**
+         * Returns the big O notation, e.g. {@code "O(n log n)"}.
+         */
+        @Override
+        public String toString() {
+            return notation;
+        }
+    }
+
+    /**
+     * The measured times and how well each complexity fits them.
+     */
+    public static class Result {
+        private final int[] sizes;
+        private final double[] times;
+        private final double[] errors;
+        private final Complexity bestFit;
+
+        private Result(int[] sizes, double[] times, double[] errors, Complexity bestFit) {
+            this.sizes = sizes;
+            this.times = times;
+            this.errors = errors;
+            this.bestFit = bestFit;
+        }
+
+        /**
+         * Returns the input sizes that were measured.
+         */
+        public int[] getSizes() {
+            return sizes.clone();
+        }
+
+        /**
+         * Returns the CPU time per call, in seconds, for each size.
+         */
+        public double[] getTimes() {
+            return times.clone();
+        }
+
+        /**
+         * Returns the complexity that fits the measurements best.
+         */
+        public Complexity getBestFit() {
+            return bestFit;
+        }
+
+        /**
+         * Returns the root mean square relative error of fitting the given complexity.
+         */
+        public double getFitError(Complexity c) {
+            return errors[c.ordinal()];
+        }
+
+        /**
+         * Returns a table of the measurements and the best fit.
+         */
+        @Override
+        public String toString() {
+            DecimalFormat fmt = new DecimalFormat("0.000000");
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < sizes.length; ++i) {
+                sb.append("n=").append(sizes[i]).append(": ").append(fmt.format(times[i])).append("s\n");
+            }
+            sb.append("Best fit: ").append(bestFit);
+            return sb.toString();
+        }
+    }
+
+    private static interface Target<P> {
+        public Object call(P input) throws Throwable;
+    }
+
+    // Complexities whose fit is within this factor of the best are considered equally good.
+    private static final double FIT_TOLERANCE = 1.1;
+
+    // Inputs of a batch are generated a few at a time so that at most about
+    // this many elements exist at once, e.g. 16MB of ints.
+    private static final int MAX_PREPARED_ELEMENTS = 1 << 22;
+
+    private final Target<P> target;
+    private final InputGenerator<P> generator;
+
+    private CpuStopwatch.Mode stopwatchMode = CpuStopwatch.Mode.BOTH;
+    private int startSize = 1000;
+    private double growthFactor = 2.0;
+    private int maxSize = 1 << 20;
+    private int repetitions = 5;
+    private double warmupTime = 0.5;
+    private double cpuBudget = 10.0;
+
+    private ComplexityEstimator(Target<P> target, InputGenerator<P> generator) {
+        this.target = target;
+        this.generator = generator;
+    }
+
+    /**
+     * Creates an estimator for a one-parameter method.
+     *
+     * <p>
+     * If the method is non-static then a {@code this} parameter
+     * must have been given to it.
+     */
+    public static <P> ComplexityEstimator<P> of(final Reflex.MethodRef1<?, ?, P> method, InputGenerator<P> generator) {
+        return new ComplexityEstimator<P>(new Target<P>() {
+            public Object call(P input) throws Throwable {
+                return method.invoke(input);
+            }
+        }, generator);
+    }
+
+    /**
+     * Sets the input sizes to try: {@code start}, {@code start*factor}, ... up to {@code max}.
+     *
+     * <p>
+     * Defaults to 1000, 2000, 4000, ... up to 2<sup>20</sup>.
+     */
+    public void setSizes(int start, double factor, int max) {
+        if (start < 1 || factor <= 1.0 || max < start) {
+            throw new IllegalArgumentException("Invalid size series");
+        }
+        this.startSize = start;
+        this.growthFactor = factor;
+        this.maxSize = max;
+    }
+
+    /**
+     * Sets how many times each size is measured. The fastest measurement is used.
+     *
+     * <p>
+     * Defaults to 5.
+     */
+    public void setRepetitions(int repetitions) {
+        if (repetitions < 1) {
+            throw new IllegalArgumentException("Need at least one repetition");
+        }
+        this.repetitions = repetitions;
+    }
+
+    /**
+     * Sets how many seconds of CPU time to spend warming up the JIT before measuring.
+     *
+     * <p>
+     * Defaults to 0.5.
+     */
+    public void setWarmupTime(double seconds) {
+        this.warmupTime = seconds;
+    }
+
+    /**
+     * Sets the total CPU time, in seconds, after which no larger sizes are tried.
+     *
+     * <p>
+     * The time spent generating inputs counts too. A size whose measurement
+     * is still unfinished when the budget runs out is left out.
+     *
+     * <p>
+     * Defaults to 10.
+     */
+    public void setCpuBudget(double seconds) {
+        this.cpuBudget = seconds;
+    }
+
+    /**
+     * Sets the type of CPU time to measure.
+     *
+     * <p>
+     * Defaults to {@link CpuStopwatch.Mode#BOTH}, which has
+     * the best resolution on most platforms.
+     */
+    public void setStopwatchMode(CpuStopwatch.Mode mode) {
+        this.stopwatchMode = mode;
+    }
+
+    /**
+     * Runs the measurements and fits the complexities.
+     *
+     * @throws AssertionError If fewer than three sizes could be measured within the budget.
+     * @throws Throwable Anything thrown by the measured method.
+     */
+    public Result estimate() throws Throwable {
+        CpuStopwatch total = new CpuStopwatch(stopwatchMode);
+
+        warmUp();
+        double minBatchTime = Math.max(0.001, 10 * stopwatchResolution());
+
+        List<Integer> sizes = new ArrayList<Integer>();
+        List<Double> times = new ArrayList<Double>();
+        double n = startSize;
+        while (n <= maxSize) {
+            int size = (int)n;
+            if (sizes.isEmpty() || size != sizes.get(sizes.size() - 1)) {
+                CpuStopwatch sw = new CpuStopwatch(stopwatchMode);
+                try {
+                    times.add(measure(size, minBatchTime, total));
+                } catch (BudgetExhausted e) {
+                    break;
+                }
+                sizes.add(size);
+                double nextCost = sw.getElapsedTime() * nextGrowth(times);
+                if (total.getElapsedTime() + nextCost > cpuBudget) {
+                    break;
+                }
+            }
+            n *= growthFactor;
+        }
+
+        if (sizes.size() < 3) {
+            throw new AssertionError("Could only measure " + sizes.size() + " input sizes within the CPU budget of " + cpuBudget + "s.");
+        }
+
+        int[] sizeArray = new int[sizes.size()];
+        double[] timeArray = new double[times.size()];
+        for (int i = 0; i < sizeArray.length; ++i) {
+            sizeArray[i] = sizes.get(i);
+            timeArray[i] = times.get(i);
+        }
+        return fit(sizeArray, timeArray);
+    }
+
+    /**
+     * Asserts that the best fitting complexity is the given one.
+     *
+     * @return The result, for further inspection.
+     */
+    public Result assertComplexity(Complexity expected) throws Throwable {
+        Result result = estimate();
+        if (result.getBestFit() != expected) {
+            throw new AssertionError("Expected time complexity " + expected + " but measurements fit " + result.getBestFit() + " best.\n" + result);
+        }
+        return result;
+    }
+
+    /**
+     * Asserts that the best fitting complexity is the given one or a simpler one.
+     *
+     * @return The result, for further inspection.
+     */
+    public Result assertAtMost(Complexity expected) throws Throwable {
+        Result result = estimate();
+        if (result.getBestFit().compareTo(expected) > 0) {
+            throw new AssertionError("Expected time complexity at most " + expected + " but measurements fit " + result.getBestFit() + " best.\n" + result);
+        }
+        return result;
+    }
+
+    private void warmUp() throws Throwable {
+        CpuStopwatch sw = new CpuStopwatch(stopwatchMode);
+        while (sw.getElapsedTime() < warmupTime) {
+            Blackhole.consume(target.call(generator.generate(startSize)));
+        }
+    }
+
+    // The smallest observable increment of the stopwatch, e.g. 10ms when
+    // measuring user time on Linux and about a microsecond otherwise.
+    private double stopwatchResolution() {
+        CpuStopwatch sw = new CpuStopwatch(stopwatchMode);
+        double first = sw.getElapsedTime();
+        double t;
+        while ((t = sw.getElapsedTime()) == first) {
+        }
+        double second = t;
+        while ((t = sw.getElapsedTime()) == second) {
+        }
+        return t - second;
+    }
+
+    // How many times more the next size is expected to cost than the last one.
+    // The time per call grew by times[k-1]/times[k-2] on the last step, and
+    // growth is capped at that of the most complex candidate.
+    private double nextGrowth(List<Double> times) {
+        int k = times.size();
+        if (k < 2) {
+            return growthFactor;
+        }
+        double observed = times.get(k - 1) / Math.max(times.get(k - 2), 1e-12);
+        double max = growthFactor * growthFactor * growthFactor;
+        return Math.min(Math.max(observed, growthFactor), max);
+    }
+
+    // Thrown from between calls when generating inputs for a size has taken
+    // the rest of the budget, e.g. when a fast method needs big batches.
+    private static class BudgetExhausted extends RuntimeException {
+    }
+
+    private double measure(final int size, double minBatchTime, final CpuStopwatch total) throws Throwable {
+        Benchmark benchmark = Benchmark.of(new Benchmark.PreparedOperation<P>() {
+            public P prepare() {
+                if (total.getElapsedTime() > cpuBudget) {
+                    throw new BudgetExhausted();
+                }
+                return generator.generate(size);
+            }
+
+            public Object run(P input) throws Throwable {
+                return target.call(input);
+            }
+        });
+        benchmark.setStopwatchMode(stopwatchMode);
+        benchmark.setWarmupTime(0);
+        benchmark.setRounds(repetitions);
+        benchmark.setMinRoundTime(minBatchTime);
+        benchmark.setMaxPreparedInputs(Math.max(1, Math.min(16, MAX_PREPARED_ELEMENTS / size)));
+        return benchmark.run().getMin();
+    }
+
+    static Result fit(int[] sizes, double[] times) {
+        Complexity[] all = Complexity.values();
+        double[] errors = new double[all.length];
+        for (Complexity c : all) {
+            errors[c.ordinal()] = fitError(c, sizes, times);
+        }
+
+        double min = Double.MAX_VALUE;
+        for (double e : errors) {
+            min = Math.min(min, e);
+        }
+        Complexity best = null;
+        for (Complexity c : all) {
+            if (errors[c.ordinal()] <= min * FIT_TOLERANCE + 1e-12) {
+                best = c;
+                break;
+            }
+        }
+        return new Result(sizes, times, errors, best);
+    }
+
+    // Weighted least squares of t = a + b*f(n) with weights 1/t^2,
+    // i.e. minimizing relative rather than absolute errors.
+    private static double fitError(Complexity c, int[] sizes, double[] times) {
+        int k = sizes.length;
+        double sw = 0, swx = 0, swy = 0, swxx = 0, swxy = 0;
+        for (int i = 0; i < k; ++i) {
+            double t = Math.max(times[i], 1e-12);
+            double w = 1.0 / (t * t);
+            double x = c.f(sizes[i]);
+            sw += w;
+            swx += w * x;
+            swy += w * t;
+            swxx += w * x * x;
+            swxy += w * x * t;
+        }
+
+        double a, b;
+        double det = sw * swxx - swx * swx;
+        if (c == Complexity.CONSTANT || Math.abs(det) < 1e-300) {
+            a = swy / sw;
+            b = 0;
+        } else {
+            b = (sw * swxy - swx * swy) / det;
+            a = (swy - b * swx) / sw;
+            if (b < 0) {
+                // Decreasing times don't support this complexity at all.
+                a = swy / sw;
+                b = 0;
+            } else if (a < 0) {
+                // Don't allow negative overhead. Fit through the origin instead.
+                a = 0;
+                b = swxy / swxx;
+            }
+        }
+
+        double sumSq = 0;
+        for (int i = 0; i < k; ++i) {
+            double t = Math.max(times[i], 1e-12);
+            double rel = (t - (a + b * c.f(sizes[i]))) / t;
+            sumSq += rel * rel;
+        }
+        return Math.sqrt(sumSq / k);
+    }
+}
@@ -16,6 +16,11 @@ import java.lang.management.ThreadMXBean;
  * measurements with an accuracy of 10 milliseconds even though
  * wall clock measurements are much more accurate.
  * Ensure your time limits are lax enough to work on all major platforms.
+ * 
+ * <p>
+ * To time many small operations, call {@link #recordLaps(int)} once and
+ * then {@link #lap()} after each operation. Recording laps doesn't
+ * allocate memory when the stopwatch watches the current thread.
  */
 public class CpuStopwatch {
     public static enum Mode {
@@ -39,6 +44,11 @@ public class CpuStopwatch {
     private ThreadMXBean bean;
     private long startTime;
     
+    private long[] laps = null;
+    private int lapCount = 0;
+    private long lapStart;
+    private TimeStatistics lapStatistics = null;
+    
     /**
      * Creates a CPU stopwatch in the given mode for watching the current thread.
      * 
@@ -66,6 +76,20 @@ public class CpuStopwatch {
     }
     
     private long getTime() {
+        return getThreadTime(bean, mode, threadId);
+    }
+    
+    static long getThreadTime(ThreadMXBean bean, Mode mode, long threadId) {
+        if (threadId == Thread.currentThread().getId()) {
+            // The getCurrentThread* methods don't allocate.
+            switch (mode) {
+                case USER: return bean.getCurrentThreadUserTime();
+                case SYSTEM: return bean.getCurrentThreadCpuTime() - bean.getCurrentThreadUserTime();
+                case BOTH: return bean.getCurrentThreadCpuTime();
+                default:
+                    throw new IllegalStateException("Invalid mode");
+            }
+        }
         switch (mode) {
             case USER: return bean.getThreadUserTime(threadId);
             case SYSTEM: return bean.getThreadCpuTime(threadId) - bean.getThreadUserTime(threadId);
@@ -86,14 +110,107 @@ public class CpuStopwatch {
      * Returns the time elapsed, in seconds, since the creation of the object or a call to {@link #restart()}.
      */
     public double getElapsedTime() {
-        return (getTime() - startTime) / 1000000000.0;
+        return getElapsedNanos() / 1000000000.0;
+    }
+    
+    /**
+     * Returns the time elapsed, in nanoseconds, since the creation of the object or a call to {@link #restart()}.
+     */
+    public long getElapsedNanos() {
+        return getTime() - startTime;
     }
     
     /**
      * Resets the stopwatch to 0 as if it had just been created.
+     * Recorded laps are forgotten.
      */
     public void restart() {
         startTime = getTime();
+        lapStart = startTime;
+        lapCount = 0;
+        if (lapStatistics != null) {
+            lapStatistics.reset();
+        }
+    }
+    
+    /**
+     * Starts recording laps into a buffer of the given capacity.
+     * 
+     * <p>
+     * The first lap starts now. Laps beyond the capacity are not stored
+     * but are still included in {@link #getLapStatistics()}.
+     */
+    public void recordLaps(int capacity) {
+        laps = new long[capacity];
+        lapStatistics = new TimeStatistics();
+        lapCount = 0;
+        lapStart = getTime();
+    }
+    
+    /**
+     * Ends the current lap and starts a new one.
+     * 
+     * @return The length of the lap in nanoseconds.
+     * @throws IllegalStateException If {@link #recordLaps(int)} hasn't been called.
+     */
+    public long lap() {
+        if (laps == null) {
+            throw new IllegalStateException("recordLaps not called");
+        }
+        long now = getTime();
+        long lap = now - lapStart;
+        lapStart = now;
+        if (lapCount < laps.length) {
+            laps[lapCount++] = lap;
+        }
+        lapStatistics.record(lap);
+        return lap;
+    }
+    
+    /**
+     * Returns the number of stored laps.
+     */
+    public int getLapCount() {
+        return lapCount;
+    }
+    
+    /**
+     * Returns the length of the given lap in nanoseconds.
+     */
+    public long getLap(int index) {
+        if (index < 0 || index >= lapCount) {
+            throw new IndexOutOfBoundsException("Lap " + index + " of " + lapCount);
+        }
+        return laps[index];
+    }
+    
+    /**
+     * Returns the split time at the end of the given lap, i.e. the total length
+     * of laps up to and including it, in nanoseconds.
+     */
+    public long getSplit(int index) {
+        long split = getLap(index);
+        for (int i = 0; i < index; ++i) {
+            split += laps[i];
+        }
+        return split;
+    }
+    
+    /**
+     * Copies the stored lap lengths into the given array, which must be big enough.
+     * 
+     * @return The number of laps copied.
+     */
+    public int getLaps(long[] dest) {
+        System.arraycopy(laps, 0, dest, 0, lapCount);
+        return lapCount;
+    }
+    
+    /**
+     * Returns statistics of all laps so far, or null if {@link #recordLaps(int)} hasn't been called.
+     */
+    public TimeStatistics getLapStatistics() {
+        return lapStatistics;
     }
 
     /**
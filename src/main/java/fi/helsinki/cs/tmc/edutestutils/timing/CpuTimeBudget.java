@@ -0,0 +1,160 @@
+package fi.helsinki.cs.tmc.edutestutils.timing;
+
+import java.text.DecimalFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+/**
+ * A CPU time budget, in seconds, shared by all tests in a test class.
+ *
+ * <p>
+ * Usage:
+ *
+ * <p>
+ * <code>
+ * import org.junit.ClassRule;<br>
+ * import org.junit.Rule;<br>
+ * <br>
+ * public class MyTest {<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;&#64;ClassRule<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;public static CpuTimeBudget budget = new CpuTimeBudget(10.0);<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;&#64;Rule<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;public CpuTimeLimit timeLimit = budget.newTimeLimit(1.0);<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;// ...<br>
+ * }
+ * </code>
+ *
+ * <p>
+ * Each test is still subject to its own {@link CpuTimeLimit}, but also
+ * draws the CPU time it uses from the budget. A test may use at most what
+ * remains of the budget, and once the budget is exhausted, the remaining
+ * tests fail immediately without being run. This bounds the total time
+ * spent on a slow submission.
+ *
+ * <p>
+ * The budget is refilled at the start of each test class when used as a
+ * {@code @ClassRule}. {@link #getReport()} tells how much each test used.
+ */
+public class CpuTimeBudget implements TestRule {
+    private final double budget;
+    private final Map<String, Double> consumption = new LinkedHashMap<String, Double>();
+    private double used = 0;
+    private boolean printingReport = false;
+
+    /**
+     * Creates a budget of the given number of CPU seconds.
+     */
+    public CpuTimeBudget(double budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Creates a {@link CpuTimeLimit} with the given per-test default limit that draws from this budget.
+     */
+    public CpuTimeLimit newTimeLimit(double defaultTimeLimit) {
+        CpuTimeLimit limit = new CpuTimeLimit(defaultTimeLimit);
+        limit.setBudget(this);
+        return limit;
+    }
+
+    /**
+     * Creates a {@link CpuTimeLimit} with the given per-test default limit and stopwatch mode that draws from this budget.
+     */
+    public CpuTimeLimit newTimeLimit(double defaultTimeLimit, CpuStopwatch.Mode mode) {
+        CpuTimeLimit limit = new CpuTimeLimit(defaultTimeLimit, mode);
+        limit.setBudget(this);
+        return limit;
+    }
+
+    /**
+     * Sets whether to print {@link #getReport()} to {@link System#err} after the test class.
+     *
+     * <p>
+     * Defaults to false.
+     */
+    public synchronized void setPrintingReport(boolean enable) {
+        this.printingReport = enable;
+    }
+
+    /**
+     * Returns the total budget in seconds.
+     */
+    public double getBudget() {
+        return budget;
+    }
+
+    /**
+     * Returns the number of seconds not yet used.
+     */
+    public synchronized double getRemaining() {
+        return Math.max(0, budget - used);
+    }
+
+    /**
+     * Tells whether the budget has been used up.
+     */
+    public synchronized boolean isExhausted() {
+        return used >= budget;
+    }
+
+    /**
+     * Returns the CPU time used by each test so far, in the order the tests ran.
+     */
+    public synchronized Map<String, Double> getConsumption() {
+        return new LinkedHashMap<String, Double>(consumption);
+    }
+
+    /**
+     * Returns a table of the CPU time used by each test.
+     */
+    public synchronized String getReport() {
+        DecimalFormat fmt = new DecimalFormat("0.000s");
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Double> entry : consumption.entrySet()) {
+            sb.append(fmt.format(entry.getValue())).append(" ").append(entry.getKey()).append("\n");
+        }
+        sb.append(fmt.format(used)).append(" of ").append(fmt.format(budget)).append(" used");
+        return sb.toString();
+    }
+
+    /**
+     * Refills the budget and forgets all recorded consumption.
+     */
+    public synchronized void reset() {
+        used = 0;
+        consumption.clear();
+    }
+
+    synchronized void record(String testName, double seconds) {
+        used += seconds;
+        Double previous = consumption.get(testName);
+        consumption.put(testName, (previous != null ? previous : 0.0) + seconds);
+    }
+
+    /**
+     * Implements {@link TestRule}. Refills the budget for each test class.
+     */
+    @Override
+    public Statement apply(final Statement statement, Description d) {
+        return new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                reset();
+                try {
+                    statement.evaluate();
+                } finally {
+                    synchronized (CpuTimeBudget.this) {
+                        if (printingReport) {
+                            System.err.println(getReport());
+                        }
+                    }
+                }
+            }
+        };
+    }
+}
@@ -1,5 +1,11 @@
 package fi.helsinki.cs.tmc.edutestutils.timing;
 
+import fi.helsinki.cs.tmc.edutestutils.Reflex;
+import fi.helsinki.cs.tmc.edutestutils.classloaders.InstrumentationHooks;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
 import java.text.DecimalFormat;
 import org.junit.rules.TestRule;
 import org.junit.rules.Timeout;
@@ -50,15 +56,77 @@ import org.junit.runners.model.Statement;
  * measurements with an accuracy of 10 milliseconds even though
  * wall clock measurements are much more accurate.
  * Ensure your time limits are lax enough to work on all major platforms.
+ * 
+ * <p>
+ * Together with {@link MemoryLimit} or another {@code CpuTimeLimit},
+ * whichever rule JUnit applies outermost runs the test thread and its
+ * watchdog checks the limits of the others too. The execution mode,
+ * stack size and spawned thread tracking of the inner rules have no effect.
  */
 public class CpuTimeLimit implements TestRule {
+    /**
+     * What kind of thread tests run on.
+     * 
+     * @see CpuTimeLimit#setExecutionMode(ExecutionMode)
+     */
+    public static enum ExecutionMode {
+        /**
+         * Runs every test on a new platform thread and measures its CPU time.
+         */
+        PLATFORM,
+        /**
+         * Runs every test on a virtual thread, if the JVM supports them.
+         * CPU time of virtual threads can't be measured, so time limits
+         * apply to wall clock time instead.
+         */
+        VIRTUAL,
+        /**
+         * Runs tests on virtual threads when the JVM supports them and the
+         * rule has neither a default time limit nor a {@link CpuTimeBudget},
+         * and on platform threads with CPU time limits otherwise.
+         * 
+         * <p>
+         * The choice is made before the test starts, so a test that calls
+         * {@link CpuTimeLimit#set(double)} or
+         * {@link CpuTimeLimit#setRelativeTo(Reflex.MethodRef1, Object, double)}
+         * must be annotated with {@link PlatformThread}, or they throw
+         * an {@link IllegalStateException}.
+         */
+        AUTO
+    }
+    
+    /**
+     * Makes a test, or all tests of a class, run on a platform thread in
+     * {@link ExecutionMode#AUTO} mode so that its CPU time can be limited.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target({ElementType.METHOD, ElementType.TYPE})
+    public static @interface PlatformThread {
+    }
+    
     private static final long TIMEOUT_CHECK_INTERVAL = 500; // How often to check whether we've timed out.
+    private static final long SPAWNED_THREADS_CHECK_INTERVAL = 50; // Same, but when looking for short-lived spawned threads.
+    private static final long WALL_CLOCK_CHECK_INTERVAL = 100; // Same, but when measuring wall clock time or looking for stalls.
+    private static final int PROFILE_FRAMES = 5; // How many hot frames to report.
+    private static final double MIN_RELATIVE_LIMIT = 0.1; // Shortest limit set by setRelativeTo.
     private static final CpuStopwatch.Mode DEFAULT_STOPWATCH_MODE = CpuStopwatch.Mode.USER;
     
     private final double defaultTimeLimit;
     private final CpuStopwatch.Mode stopwatchMode;
     
     private volatile double timeLimit = Double.MAX_VALUE;
+    private volatile boolean cancellingInstrumentedCode = false;
+    private volatile boolean trackingSpawnedThreads = false;
+    private volatile boolean interruptingSpawnedThreads = false;
+    private volatile double wallClockLimit = Double.MAX_VALUE;
+    private volatile boolean detectingStalls = false;
+    private volatile boolean profiling = false;
+    private volatile CpuTimeBudget budget = null;
+    private volatile boolean usingReferenceSeconds = false;
+    private volatile double speedFactor = 1.0;
+    private volatile String limitNote = null;
+    private volatile ExecutionMode executionMode = ExecutionMode.PLATFORM;
+    private volatile long stackSize = 0;
     
     /**
      * Constructs a time limit rule with no default time limit and a user CPU time stopwatch.
@@ -98,75 +166,523 @@ public class CpuTimeLimit implements TestRule {
      * subsequent test methods.
      */
     public synchronized void set(double limit) {
+        requirePlatformThreadInAutoMode();
         this.timeLimit = limit;
+        this.limitNote = null;
+    }
+    
+    /**
+     * Call this from a test method to limit it to a multiple of the time
+     * a reference implementation takes on the given input.
+     * 
+     * <p>
+     * The reference is called repeatedly with the input, after a warm-up,
+     * and the fastest call is used. The result is cached by method and
+     * a fingerprint of the input's contents, so measuring the same reference
+     * on equal inputs in later tests is free. Only arrays, strings, boxed
+     * primitives and lists of these are fingerprinted; other inputs are
+     * measured every time. Time spent so far in the test, including the
+     * measurement, is added to the limit, which is at least 0.1 seconds
+     * since the stopwatch can't reliably measure less.
+     * 
+     * <p>
+     * The reference must not modify its input, or later calls see
+     * a different input. Pass it a copy if necessary.
+     * 
+     * <p>
+     * Like {@link #set(double)}, this applies to the current test method only.
+     * 
+     * @throws Throwable Anything thrown by the reference.
+     */
+    public <P> void setRelativeTo(Reflex.MethodRef1<?, ?, P> reference, P input, double multiple) throws Throwable {
+        requirePlatformThreadInAutoMode();
+        if (VirtualThreads.isVirtual(Thread.currentThread())) {
+            throw new IllegalStateException("Can't measure CPU time on a virtual thread");
+        }
+        double referenceTime = ReferenceTimes.timeOf(reference, input, stopwatchMode);
+        
+        TestThread current = TestThread.current();
+        double spent = (current != null) ? current.getElapsedCpuTime() : 0;
+        set((spent + Math.max(multiple * referenceTime, MIN_RELATIVE_LIMIT)) / speedFactor);
+        limitNote = new DecimalFormat("#.##").format(multiple) + "x the reference time of " + new DecimalFormat("0.######s").format(referenceTime);
+    }
+    
+    /**
+     * Sets whether to forcibly stop instrumented code in a test thread that times out.
+     * 
+     * <p>
+     * By default, a timed out test thread is only interrupted. Student code
+     * like {@code while (true) {}} ignores interrupts and keeps using
+     * a CPU core for the rest of the test run. If this is enabled,
+     * instrumented code in the timed out thread throws
+     * {@link TestThreadCancelledError} at its next loop iteration or method call.
+     * 
+     * <p>
+     * Only classes loaded with {@link OperationLimit#transformers()}
+     * are instrumented.
+     * 
+     * <p>
+     * Defaults to false.
+     */
+    public void setCancellingInstrumentedCode(boolean enable) {
+        this.cancellingInstrumentedCode = enable;
+    }
+    
+    /**
+     * Sets whether to count the CPU time of threads started by the test.
+     * 
+     * <p>
+     * If enabled, the test runs in its own {@link ThreadGroup} and the
+     * CPU time of all threads in it is summed against the limit. Threads
+     * started by the test join the group, as do threads started by them.
+     * Threads owned by shared pools, such as the common fork-join pool used
+     * by parallel streams, are not in the group and are not counted.
+     * 
+     * <p>
+     * The threads are checked every 50ms.
+     * A thread that starts and finishes between two checks is not noticed.
+     * 
+     * <p>
+     * Defaults to false.
+     */
+    public void setTrackingSpawnedThreads(boolean enable) {
+        this.trackingSpawnedThreads = enable;
+    }
+    
+    /**
+     * Sets whether to interrupt (and possibly cancel) all threads started by
+     * the test when it times out, not just the test thread itself.
+     * 
+     * <p>
+     * Only has an effect together with {@link #setTrackingSpawnedThreads(boolean)}.
+     * 
+     * <p>
+     * Defaults to false.
+     */
+    public void setInterruptingSpawnedThreads(boolean enable) {
+        this.interruptingSpawnedThreads = enable;
+    }
+    
+    /**
+     * Sets a limit on real time, in seconds, for every test method.
+     * 
+     * <p>
+     * CPU time doesn't advance while a program waits, so a test that
+     * blocks forever (e.g. waits for a thread that never finishes)
+     * never exceeds its CPU time limit. The wall clock limit catches these.
+     * It should be set well above the CPU time limit so that a busy
+     * machine doesn't cause spurious failures.
+     * 
+     * <p>
+     * Defaults to no limit.
+     */
+    public void setWallClockLimit(double seconds) {
+        this.wallClockLimit = seconds;
+    }
+    
+    /**
+     * Sets whether to fail immediately when the test gets stuck.
+     * 
+     * <p>
+     * If enabled, the test fails with a {@link BlockedTestException}
+     * describing the problem when the test thread (or a thread it started,
+     * see {@link #setTrackingSpawnedThreads(boolean)}) is deadlocked, or
+     * when the test thread has waited for input from {@link System#in}
+     * for a second without getting any, e.g. from a mocked input that
+     * blocks until more is given.
+     * 
+     * <p>
+     * Defaults to false.
+     */
+    public void setDetectingStalls(boolean enable) {
+        this.detectingStalls = enable;
+    }
+    
+    /**
+     * Sets whether to sample the test thread's stack while the test runs.
+     * 
+     * <p>
+     * If enabled, a {@link StackSampler} watches the test thread and,
+     * if the test times out, the most frequently sampled lines of code
+     * are added to the message of the {@link TimeLimitException}.
+     * 
+     * <p>
+     * Defaults to false.
+     */
+    public void setProfiling(boolean enable) {
+        this.profiling = enable;
+    }
+    
+    /**
+     * Makes every test draw the CPU time it uses from a budget shared by the test class.
+     * 
+     * <p>
+     * A test may use at most what remains of the budget, even if its own
+     * limit is higher. Once the budget is exhausted, tests fail immediately
+     * with a {@link TimeLimitException} without being run. Tests on virtual
+     * threads aren't charged, since their CPU time can't be measured.
+     * See {@link CpuTimeBudget} for usage.
+     * 
+     * <p>
+     * Defaults to no budget.
+     */
+    public void setBudget(CpuTimeBudget budget) {
+        this.budget = budget;
+    }
+    
+    /**
+     * Sets whether time limits are given in reference seconds.
+     * 
+     * <p>
+     * If enabled, the default limit and limits given to {@link #set(double)}
+     * are scaled by {@link Calibration#getSpeedFactor()}, so that a limit
+     * chosen on one machine works on slower and faster machines too.
+     * The wall clock limit and the {@link CpuTimeBudget} are not scaled.
+     * 
+     * <p>
+     * Defaults to false.
+     */
+    public void setUsingReferenceSeconds(boolean enable) {
+        this.usingReferenceSeconds = enable;
+    }
+    
+    /**
+     * Sets what kind of thread tests run on.
+     * 
+     * <p>
+     * Virtual threads (Java 21 and later) are cheap to create, which
+     * speeds up large suites of short tests that mostly wait for I/O.
+     * Their CPU time can't be measured, so on a virtual thread the time
+     * limit, including one given to {@link #set(double)}, is compared to
+     * wall clock time. {@link #setRelativeTo(Reflex.MethodRef1, Object, double)}
+     * doesn't work on virtual threads.
+     * 
+     * <p>
+     * Platform threads are used regardless of the mode when the JVM
+     * doesn't support virtual threads or when
+     * {@link #setTrackingSpawnedThreads(boolean)} is enabled.
+     * 
+     * <p>
+     * Defaults to {@link ExecutionMode#PLATFORM}.
+     */
+    public void setExecutionMode(ExecutionMode mode) {
+        this.executionMode = mode;
+    }
+    
+    /**
+     * Sets the stack size, in bytes, of the thread tests run on.
+     * 
+     * <p>
+     * Deeply recursive code overflows the default stack on big inputs.
+     * With a stack size set, tests run on threads with that stack size,
+     * taken from a pool so that a new thread isn't created for each test.
+     * A thread whose test times out isn't reused.
+     * See also {@link StackRunner} for running just part of a test on a bigger stack.
+     * 
+     * <p>
+     * Threads aren't pooled when {@link #setTrackingSpawnedThreads(boolean)}
+     * is enabled, and the stack size has no effect on virtual threads.
+     * 
+     * <p>
+     * Defaults to 0, which means the JVM's default stack size.
+     */
+    public void setStackSize(long bytes) {
+        this.stackSize = bytes;
     }
     
     /**
      * Implements {@link TestRule}.
      */
     @Override
-    public Statement apply(final Statement statement, Description d) {
+    public Statement apply(final Statement statement, final Description d) {
         return new Statement() {
             @Override
             public void evaluate() throws Throwable {
-                timeLimit = defaultTimeLimit;
-                
-                TestThread thread = new TestThread(statement);
-                thread.start();
-                
-                CpuStopwatch stopwatch = createStopwatch(thread.getId());
-                while (!thread.finished && stopwatch.getElapsedTime() < timeLimit) {
-                    thread.join(TIMEOUT_CHECK_INTERVAL);
-                }
-                
-                Throwable exception = null;
-                if (thread.finished) {
-                    exception = thread.exceptionFromTest;
-                } else {
-                    exception = new TimeLimitException("Time limit (" + timeLimitString() + ") exceeded");
-                    exception.setStackTrace(thread.getStackTrace());
-                    thread.interrupt();
-                }
-                
-                if (exception != null) {
-                    throw exception;
+                TestThread outer = TestThread.current();
+                if (outer != null) {
+                    // Another rule already runs the test on a watched thread.
+                    runNested(statement, d, outer);
+                    return;
                 }
+                runTest(statement, d, runsOnVirtualThread(d));
             }
         };
     }
     
-    private String timeLimitString() {
-        return new DecimalFormat("#.###s").format(timeLimit);
+    private void runTest(Statement statement, Description d, boolean virtual) throws Throwable {
+        CpuTimeBudget budget = startTest();
+        
+        ThreadGroup group = null;
+        ThreadGroupCpuStopwatch groupStopwatch = null;
+        if (trackingSpawnedThreads) {
+            group = new ThreadGroup("TimeLimit.TestThreadGroup");
+            groupStopwatch = new ThreadGroupCpuStopwatch(stopwatchMode, group);
+        }
+        
+        long stackSize = CpuTimeLimit.this.stackSize;
+        TestThread test = (stackSize > 0)
+                ? new TestThread(group, "TimeLimit.TestThread", statement, stackSize)
+                : new TestThread(group, "TimeLimit.TestThread", statement);
+        Thread thread = test;
+        boolean pooled = !virtual && stackSize > 0 && group == null;
+        // When virtual or pooled, the TestThread object only holds the state.
+        if (virtual) {
+            thread = VirtualThreads.newThread("TimeLimit.TestThread", test);
+            thread.start();
+        } else if (pooled) {
+            test.measureCpuTime(stopwatchMode);
+            thread = TestThreadPool.execute(stackSize, test);
+        } else {
+            test.measureCpuTime(stopwatchMode);
+            thread.start();
+        }
+        
+        Limits limits = new Limits(test, thread, virtual, group, groupStopwatch, budget);
+        Throwable failure = null;
+        while (!test.finished) {
+            failure = limits.check();
+            if (failure == null) {
+                failure = test.checkWatches();
+            }
+            if (failure != null) {
+                break;
+            }
+            test.awaitFinished(test.checkInterval(checkInterval()));
+        }
+        limits.stop();
+        if (failure instanceof TimeLimitException && !test.finished) {
+            failure = limits.withProfile((TimeLimitException)failure);
+        }
+        
+        if (budget != null && !virtual) {
+            // The last poll misses whatever the test thread did after it.
+            budget.record(d.getDisplayName(), test.finished ? Math.max(limits.elapsed, test.cpuTimeUsed) : limits.elapsed);
+        }
+        
+        Throwable exception = null;
+        if (test.finished) {
+            exception = test.exceptionFromTest;
+        } else {
+            exception = failure;
+            exception.setStackTrace(thread.getStackTrace());
+            if (pooled) {
+                TestThreadPool.discard(thread);
+            }
+            test.stopRequested = true;
+            if (groupStopwatch != null && interruptingSpawnedThreads) {
+                stopThreads(groupStopwatch.getThreads());
+            } else {
+                stopThreads(new Thread[] { thread });
+            }
+            test.stopHelpers(cancellingInstrumentedCode);
+        }
+        
+        if (exception != null) {
+            throw exception;
+        }
     }
     
-    private CpuStopwatch createStopwatch(long threadId) {
-        return new CpuStopwatch(stopwatchMode, threadId);
+    // Runs the test in place on the thread of an outer rule, whose watchdog checks our limits too.
+    private void runNested(Statement statement, Description d, TestThread outer) throws Throwable {
+        CpuTimeBudget budget = startTest();
+        final Thread thread = Thread.currentThread();
+        final Limits limits = new Limits(outer, thread, VirtualThreads.isVirtual(thread), null, null, budget);
+        TestThread.Watch watch = new TestThread.Watch() {
+            @Override
+            public Throwable check() {
+                TimeLimitException failure = limits.check();
+                if (failure != null) {
+                    limits.stop();
+                    failure = limits.withProfile(failure);
+                    failure.setStackTrace(thread.getStackTrace());
+                    if (cancellingInstrumentedCode) {
+                        InstrumentationHooks.cancel(thread);
+                    }
+                }
+                return failure;
+            }
+            
+            @Override
+            public long getCheckInterval() {
+                return checkInterval();
+            }
+        };
+        outer.addWatch(watch);
+        try {
+            statement.evaluate();
+        } finally {
+            outer.removeWatch(watch);
+            limits.stop();
+            if (budget != null && !limits.virtual) {
+                budget.record(d.getDisplayName(), limits.measure());
+            }
+        }
     }
-
     
-    private static class TestThread extends Thread {
-        private final Statement statement;
+    // Resets the limits for a new test and returns the budget to draw from, if any.
+    private CpuTimeBudget startTest() {
+        timeLimit = defaultTimeLimit;
+        limitNote = null;
+        // Calibrate before starting the test thread so that it isn't counted.
+        speedFactor = usingReferenceSeconds ? Calibration.getSpeedFactor() : 1.0;
         
-        public boolean finished = false;
-        public Throwable exceptionFromTest = null;
-
-        public TestThread(Statement statement) {
-            super("TimeLimit.TestThread");
-            this.statement = statement;
+        CpuTimeBudget budget = CpuTimeLimit.this.budget;
+        if (budget != null && budget.isExhausted()) {
+            throw new TimeLimitException("CPU time budget of the test class (" + formatSeconds(budget.getBudget()) + ") exhausted");
         }
-
-        @Override
-        public void run() {
-            try {
-                statement.evaluate();
-            } catch (InterruptedException e) {
-                // Most likely sent by us after a timeout
-            } catch (Throwable e) {
-                exceptionFromTest = e;
-            } finally {
-                finished = true;
+        return budget;
+    }
+    
+    // What the watchdog checks on a running test.
+    private class Limits {
+        private final TestThread test;
+        private final boolean virtual;
+        private final CpuTimeBudget budget;
+        private final double budgetRemaining;
+        private final ThreadGroupCpuStopwatch groupStopwatch;
+        private final CpuStopwatch stopwatch;
+        private final StallDetector stallDetector;
+        private final StackSampler sampler;
+        private final long wallClockStart = System.nanoTime();
+        volatile double elapsed = 0; // As of the last check
+        
+        Limits(TestThread test, Thread thread, boolean virtual, ThreadGroup group, ThreadGroupCpuStopwatch groupStopwatch, CpuTimeBudget budget) {
+            this.test = test;
+            this.virtual = virtual;
+            this.budget = budget;
+            // Wall clock time on a virtual thread isn't CPU time, so it isn't charged to the budget.
+            this.budgetRemaining = (budget != null && !virtual) ? budget.getRemaining() : Double.MAX_VALUE;
+            this.groupStopwatch = groupStopwatch;
+            this.stopwatch = (groupStopwatch == null && !virtual) ? createStopwatch(thread.getId()) : null;
+            this.stallDetector = detectingStalls ? new StallDetector(thread, group) : null;
+            if (profiling) {
+                sampler = new StackSampler(thread);
+                sampler.start();
+            } else {
+                sampler = null;
+            }
+        }
+        
+        double measure() {
+            if (virtual) {
+                return wallClockElapsed();
+            }
+            double own = (groupStopwatch != null) ? groupStopwatch.getElapsedTime() : stopwatch.getElapsedTime();
+            return own + test.getHelperCpuTime();
+        }
+        
+        private double wallClockElapsed() {
+            return (System.nanoTime() - wallClockStart) / 1000000000.0;
+        }
+        
+        // Returns the exception to fail the test with, or null if it may continue.
+        TimeLimitException check() {
+            double wallClockElapsed = wallClockElapsed();
+            elapsed = measure();
+            if (elapsed >= timeLimit * speedFactor) {
+                return new TimeLimitException("Time limit (" + timeLimitString() + (virtual ? " of wall clock time on a virtual thread" : "") + ") exceeded");
+            }
+            if (elapsed >= budgetRemaining) {
+                return new TimeLimitException("CPU time budget of the test class (" + formatSeconds(budget.getBudget()) + ") exhausted");
+            }
+            if (wallClockElapsed >= wallClockLimit) {
+                return new TimeLimitException("Wall clock time limit (" + formatSeconds(wallClockLimit) + ") exceeded");
+            }
+            if (stallDetector != null) {
+                String stall = stallDetector.check();
+                if (stall != null) {
+                    return new BlockedTestException(stall);
+                }
+            }
+            return null;
+        }
+        
+        void stop() {
+            if (sampler != null) {
+                sampler.stop();
+            }
+        }
+        
+        TimeLimitException withProfile(TimeLimitException failure) {
+            return (sampler != null) ? CpuTimeLimit.withProfile(failure, sampler) : failure;
+        }
+    }
+    
+    private void stopThreads(Thread[] threads) {
+        for (Thread t : threads) {
+            t.interrupt();
+            if (cancellingInstrumentedCode) {
+                InstrumentationHooks.cancel(t);
             }
         }
     }
     
+    private static TimeLimitException withProfile(TimeLimitException failure, StackSampler sampler) {
+        String summary = sampler.getSummary(PROFILE_FRAMES);
+        if (summary == null) {
+            return failure;
+        }
+        String message = failure.getMessage() + "\n" + summary;
+        if (failure instanceof BlockedTestException) {
+            return new BlockedTestException(message);
+        } else {
+            return new TimeLimitException(message);
+        }
+    }
+    
+    private void requirePlatformThreadInAutoMode() {
+        if (executionMode == ExecutionMode.AUTO && TestThread.current() != null
+                && VirtualThreads.isVirtual(Thread.currentThread())) {
+            throw new IllegalStateException("Can't limit CPU time on a virtual thread. "
+                    + "Annotate the test with @CpuTimeLimit.PlatformThread.");
+        }
+    }
+    
+    private boolean runsOnVirtualThread(Description d) {
+        if (!VirtualThreads.isSupported() || trackingSpawnedThreads) {
+            return false;
+        }
+        switch (executionMode) {
+            case VIRTUAL: return true;
+            case AUTO: return defaultTimeLimit == Double.MAX_VALUE && budget == null && !requiresPlatformThread(d);
+            default: return false;
+        }
+    }
+    
+    private static boolean requiresPlatformThread(Description d) {
+        if (d.getAnnotation(PlatformThread.class) != null) {
+            return true;
+        }
+        Class<?> testClass = d.getTestClass();
+        return testClass != null && testClass.isAnnotationPresent(PlatformThread.class);
+    }
+    
+    private long checkInterval() {
+        if (trackingSpawnedThreads) {
+            return SPAWNED_THREADS_CHECK_INTERVAL;
+        } else if (wallClockLimit != Double.MAX_VALUE || detectingStalls || budget != null || executionMode != ExecutionMode.PLATFORM) {
+            return WALL_CLOCK_CHECK_INTERVAL;
+        } else {
+            return TIMEOUT_CHECK_INTERVAL;
+        }
+    }
+    
+    private String timeLimitString() {
+        String s = formatSeconds(timeLimit);
+        if (speedFactor != 1.0) {
+            s += " reference, " + formatSeconds(timeLimit * speedFactor) + " on this machine";
+        }
+        if (limitNote != null) {
+            s += "; " + limitNote;
+        }
+        return s;
+    }
+    
+    private static String formatSeconds(double seconds) {
+        return new DecimalFormat("#.###s").format(seconds);
+    }
+    
+    private CpuStopwatch createStopwatch(long threadId) {
+        return new CpuStopwatch(stopwatchMode, threadId);
+    }
 }
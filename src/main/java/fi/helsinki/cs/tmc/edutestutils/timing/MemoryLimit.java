@@ -0,0 +1,267 @@
+package fi.helsinki.cs.tmc.edutestutils.timing;
+
+import fi.helsinki.cs.tmc.edutestutils.classloaders.InstrumentationHooks;
+import java.lang.management.ManagementFactory;
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+/**
+ * Imposes test method specific limits on the number of bytes allocated.
+ *
+ * <p>
+ * Usage:
+ *
+ * <p>
+ * <code>
+ * import org.junit.Rule;<br>
+ * <br>
+ * public class MyTest {<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;&#64;Rule<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;public MemoryLimit memLimit = new MemoryLimit(256 * MemoryLimit.MB);<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;@Test<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;public void testSomething() {<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;memLimit.set(16 * MemoryLimit.MB);<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;// test stuff<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;}<br>
+ * }
+ * </code>
+ *
+ * <p>
+ * This works like {@link CpuTimeLimit}: the test runs in a separate thread
+ * that is watched until it finishes or exceeds its limit, in which case the
+ * test fails with a {@link MemoryLimitException}. When used together with
+ * {@code CpuTimeLimit}, whichever rule JUnit applies outermost runs the
+ * thread and watches for both limits.
+ *
+ * <p>
+ * The limit is on the total number of bytes allocated by the test thread,
+ * including objects that have since become garbage. It is not a limit
+ * on the size of the heap. Allocations by other threads are not counted.
+ *
+ * <p>
+ * <b>NOTE:</b> measuring allocations requires
+ * {@code com.sun.management.ThreadMXBean}, which HotSpot-based JVMs provide.
+ * On other JVMs a warning is printed and no limit is imposed.
+ * The limit is checked periodically while the test runs, so a test may
+ * exceed it by whatever it manages to allocate in a few milliseconds before
+ * being stopped. A test that finishes before the next check still fails.
+ * Allocations on virtual threads can't be measured, so the limit isn't
+ * enforced when an outer {@code CpuTimeLimit} runs the test on one.
+ */
+public class MemoryLimit implements TestRule {
+    public static final long KB = 1024;
+    public static final long MB = 1024 * KB;
+
+    private static final long CHECK_INTERVAL = 10; // How often to check whether we've exceeded the limit.
+    private static boolean warnedAboutUnsupported = false;
+
+    private final long defaultLimit;
+
+    private volatile long limit = Long.MAX_VALUE;
+    private volatile boolean cancellingInstrumentedCode = false;
+
+    /**
+     * Constructs a memory limit rule with no default limit.
+     */
+    public MemoryLimit() {
+        this(Long.MAX_VALUE);
+    }
+
+    /**
+     * Constructs a memory limit rule with a default limit in bytes.
+     */
+    public MemoryLimit(long defaultLimit) {
+        this.defaultLimit = defaultLimit;
+    }
+
+    /**
+     * Call this from a test method to set an allocation limit, in bytes, for that method.
+     *
+     * <p>
+     * The limit will only apply to the current test method.
+     */
+    public synchronized void set(long limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * Sets whether to forcibly stop instrumented code in a test thread that exceeds its limit.
+     *
+     * <p>
+     * See {@link CpuTimeLimit#setCancellingInstrumentedCode(boolean)}.
+     *
+     * <p>
+     * Defaults to false.
+     */
+    public void setCancellingInstrumentedCode(boolean enable) {
+        this.cancellingInstrumentedCode = enable;
+    }
+
+    /**
+     * Tells whether the JVM supports measuring allocations per thread.
+     */
+    public static boolean isSupported() {
+        try {
+            return AllocationCounter.isSupported();
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Implements {@link TestRule}.
+     */
+    @Override
+    public Statement apply(final Statement statement, Description d) {
+        return new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                limit = defaultLimit;
+
+                if (!isSupported()) {
+                    warnUnsupported();
+                    statement.evaluate();
+                    return;
+                }
+
+                TestThread outer = TestThread.current();
+                if (outer != null) {
+                    // Another rule already runs the test on a watched thread.
+                    runNested(statement, outer);
+                } else {
+                    runTest(statement);
+                }
+            }
+        };
+    }
+
+    private void runTest(Statement statement) throws Throwable {
+        TestThread thread = new TestThread("MemoryLimit.TestThread", statement);
+        thread.measureAllocations();
+        thread.start();
+
+        // A new thread's counter starts from zero, so everything it reports is the test's.
+        Throwable failure = null;
+        while (!thread.finished) {
+            failure = check(thread, AllocationCounter.getAllocatedBytes(thread.getId()));
+            if (failure == null) {
+                failure = thread.checkWatches();
+            }
+            if (failure != null) {
+                break;
+            }
+            thread.awaitFinished(thread.checkInterval(CHECK_INTERVAL));
+        }
+
+        Throwable exception = null;
+        if (thread.finished) {
+            exception = thread.exceptionFromTest;
+            if (exception == null) {
+                // The test may have finished between two checks.
+                exception = check(thread, thread.allocatedBytes);
+            }
+        } else {
+            exception = failure;
+            exception.setStackTrace(thread.getStackTrace());
+            thread.stopRequested = true;
+            thread.interrupt();
+            if (cancellingInstrumentedCode) {
+                InstrumentationHooks.cancel(thread);
+            }
+            thread.stopHelpers(cancellingInstrumentedCode);
+        }
+
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    private void runNested(Statement statement, TestThread outer) throws Throwable {
+        final Thread thread = Thread.currentThread();
+        final long start = AllocationCounter.getAllocatedBytes(thread.getId());
+        TestThread.Watch watch = new TestThread.Watch() {
+            @Override
+            public Throwable check() {
+                MemoryLimitException failure = MemoryLimit.this.check(thread, AllocationCounter.getAllocatedBytes(thread.getId()) - start);
+                if (failure != null && cancellingInstrumentedCode) {
+                    InstrumentationHooks.cancel(thread);
+                }
+                return failure;
+            }
+
+            @Override
+            public long getCheckInterval() {
+                return CHECK_INTERVAL;
+            }
+        };
+        outer.addWatch(watch);
+        try {
+            statement.evaluate();
+        } finally {
+            outer.removeWatch(watch);
+        }
+        MemoryLimitException failure = check(thread, AllocationCounter.getAllocatedBytes(thread.getId()) - start);
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    // Returns the exception to fail the test with if it has allocated too much, or null.
+    private MemoryLimitException check(Thread thread, long allocated) {
+        if (allocated <= limit) {
+            return null;
+        }
+        MemoryLimitException failure = new MemoryLimitException("Memory limit (" + formatBytes(limit) + ") exceeded: allocated " + formatBytes(allocated));
+        failure.setStackTrace(thread.getStackTrace());
+        return failure;
+    }
+
+    /**
+     * Returns the number of bytes the given thread has allocated since it started.
+     * Only call this if {@link #isSupported()}.
+     */
+    static long getAllocatedBytes(Thread thread) {
+        return AllocationCounter.getAllocatedBytes(thread.getId());
+    }
+
+    private static synchronized void warnUnsupported() {
+        if (!warnedAboutUnsupported) {
+            System.err.println("Warning: this JVM can't measure allocations per thread. MemoryLimit is not enforced.");
+            warnedAboutUnsupported = true;
+        }
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes >= MB) {
+            return (bytes / MB) + "MB";
+        } else if (bytes >= KB) {
+            return (bytes / KB) + "KB";
+        } else {
+            return bytes + "B";
+        }
+    }
+
+    // Kept separate so that a missing com.sun.management only fails
+    // when this class is loaded, which isSupported() catches.
+    private static class AllocationCounter {
+        private static final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+        static boolean isSupported() {
+            if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+                return false;
+            }
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean)bean;
+            if (!sunBean.isThreadAllocatedMemorySupported()) {
+                return false;
+            }
+            sunBean.setThreadAllocatedMemoryEnabled(true);
+            return true;
+        }
+
+        static long getAllocatedBytes(long threadId) {
+            return ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(threadId);
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package fi.helsinki.cs.tmc.edutestutils.timing;
+
+/**
+ * Thrown by {@link MemoryLimit} when a test allocates too much memory.
+ */
+public class MemoryLimitException extends RuntimeException {
+    public MemoryLimitException(String message) {
+        super(message);
+    }
+}
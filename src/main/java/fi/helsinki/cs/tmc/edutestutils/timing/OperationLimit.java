@@ -0,0 +1,126 @@
+package fi.helsinki.cs.tmc.edutestutils.timing;
+
+import fi.helsinki.cs.tmc.edutestutils.classloaders.BranchInstrumentingTransformer;
+import fi.helsinki.cs.tmc.edutestutils.classloaders.ClassTransformerChain;
+import fi.helsinki.cs.tmc.edutestutils.classloaders.InstrumentationHooks;
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+/**
+ * Imposes test method specific limits on the number of operations
+ * performed by instrumented code.
+ *
+ * <p>
+ * An operation is a method entry or a backward branch (i.e. a loop iteration)
+ * in a class instrumented by {@link BranchInstrumentingTransformer}.
+ * Unlike CPU time, operation counts are deterministic and don't depend on
+ * the machine or on other load, so limits can be set tightly enough to
+ * tell e.g. O(n) and O(n<sup>2</sup>) solutions apart.
+ *
+ * <p>
+ * Only classes loaded with the transformers from {@link #transformers()}
+ * are counted. Usage:
+ *
+ * <p>
+ * <code>
+ * import org.junit.Rule;<br>
+ * <br>
+ * public class MyTest {<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;&#64;Rule<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;public OperationLimit opLimit = new OperationLimit(1000000);<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;@Test<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;public void testSomething() {<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;Class&lt;?&gt; cls = ReflectionUtils.newInstanceOfClass("Thing", OperationLimit.transformers());<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;opLimit.set(5000);<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;// call methods of cls<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;}<br>
+ * }
+ * </code>
+ *
+ * <p>
+ * To count operations in all student classes, not just one, set an
+ * {@link fi.helsinki.cs.tmc.edutestutils.classloaders.OverridingClassLoader}
+ * with these transformers as
+ * {@link fi.helsinki.cs.tmc.edutestutils.ReflectionUtils#FIXED_CLASSLOADER}.
+ *
+ * <p>
+ * Operations are counted in the thread that runs the test. If this rule
+ * is used together with {@link CpuTimeLimit}, make sure this rule is
+ * applied inside it (e.g. with a {@link org.junit.rules.RuleChain}).
+ *
+ * <p>
+ * When the limit is exceeded, the instrumented code throws an
+ * {@link OperationLimitException} at its next operation. If student code
+ * catches and ignores it, the test still fails when it finishes.
+ */
+public class OperationLimit implements TestRule {
+    private static final ClassTransformerChain TRANSFORMERS = new ClassTransformerChain(new BranchInstrumentingTransformer());
+
+    private final long defaultLimit;
+
+    /**
+     * Constructs an operation limit rule with no default limit.
+     */
+    public OperationLimit() {
+        this(Long.MAX_VALUE);
+    }
+
+    /**
+     * Constructs an operation limit rule with a default limit.
+     */
+    public OperationLimit(long defaultLimit) {
+        this.defaultLimit = defaultLimit;
+    }
+
+    /**
+     * Returns the shared transformer chain that instruments classes for counting.
+     */
+    public static ClassTransformerChain transformers() {
+        return TRANSFORMERS;
+    }
+
+    /**
+     * Call this from a test method to set an operation limit for that method.
+     *
+     * <p>
+     * The limit counts operations since the start of the test method.
+     * It applies only to the current test method.
+     */
+    public void set(long limit) {
+        InstrumentationHooks.setBudget(limit);
+    }
+
+    /**
+     * Returns the number of operations performed so far in the current test method.
+     */
+    public long getOperationCount() {
+        return InstrumentationHooks.getOperationCount();
+    }
+
+    /**
+     * Implements {@link TestRule}.
+     */
+    @Override
+    public Statement apply(final Statement statement, Description d) {
+        return new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                InstrumentationHooks.startCounting(defaultLimit);
+                long limit;
+                long count;
+                try {
+                    statement.evaluate();
+                } finally {
+                    limit = InstrumentationHooks.getBudget();
+                    count = InstrumentationHooks.stopCounting();
+                }
+                if (count > limit) {
+                    // The student code swallowed the exception.
+                    throw new OperationLimitException("Operation limit (" + limit + ") exceeded");
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,10 @@
+package fi.helsinki.cs.tmc.edutestutils.timing;
+
+/**
+ * Thrown by {@link OperationLimit} when a test performs too many operations.
+ */
+public class OperationLimitException extends TimeLimitException {
+    public OperationLimitException(String message) {
+        super(message);
+    }
+}
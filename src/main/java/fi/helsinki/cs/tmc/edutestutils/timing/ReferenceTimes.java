@@ -0,0 +1,244 @@
+package fi.helsinki.cs.tmc.edutestutils.timing;
+
+import fi.helsinki.cs.tmc.edutestutils.Reflex;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures and caches how long reference implementations take on given inputs.
+ *
+ * <p>
+ * Results are cached by method and a SHA-256 fingerprint of the input's
+ * contents, computed on every lookup, so an input changed after it was
+ * measured isn't mistaken for the old one, and no input is kept alive.
+ * Arrays, strings, boxed primitives and lists of these, nested in any way,
+ * can be fingerprinted. Other inputs are measured again every time.
+ *
+ * @see CpuTimeLimit#setRelativeTo(Reflex.MethodRef1, Object, double)
+ */
+final class ReferenceTimes {
+    private static final double WARMUP_TIME = 0.2;
+    private static final double MIN_ROUND_TIME = 0.02;
+    private static final int ROUNDS = 5;
+    static final int MAX_CACHED = 1024;
+
+    private static final class Key {
+        private final Method method;
+        private final CpuStopwatch.Mode mode;
+        private final byte[] fingerprint;
+        private final int hash;
+
+        Key(Method method, CpuStopwatch.Mode mode, byte[] fingerprint) {
+            this.method = method;
+            this.mode = mode;
+            this.fingerprint = fingerprint;
+            this.hash = 31 * (31 * method.hashCode() + mode.hashCode()) + Arrays.hashCode(fingerprint);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key)obj;
+            return hash == other.hash
+                    && method.equals(other.method)
+                    && mode == other.mode
+                    && Arrays.equals(fingerprint, other.fingerprint);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final Map<Key, Double> cache = new LinkedHashMap<Key, Double>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Double> eldest) {
+            return size() > MAX_CACHED;
+        }
+    };
+
+    private ReferenceTimes() {
+    }
+
+    /**
+     * Returns the CPU time, in seconds, of one call of the reference with the given input.
+     */
+    static <P> double timeOf(Reflex.MethodRef1<?, ?, P> reference, P input, CpuStopwatch.Mode mode) throws Throwable {
+        Key key = keyOf(reference, input, mode);
+        if (key != null) {
+            synchronized (cache) {
+                Double cached = cache.get(key);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+        }
+
+        Benchmark benchmark = Benchmark.of(reference, input);
+        benchmark.setStopwatchMode(mode);
+        benchmark.setWarmupTime(WARMUP_TIME);
+        benchmark.setRounds(ROUNDS);
+        benchmark.setMinRoundTime(MIN_ROUND_TIME);
+        double time = benchmark.run().getMin();
+        if (key != null) {
+            remember(key, time);
+        }
+        return time;
+    }
+
+    static <P> void remember(Reflex.MethodRef1<?, ?, P> reference, P input, CpuStopwatch.Mode mode, double time) {
+        Key key = keyOf(reference, input, mode);
+        if (key != null) {
+            remember(key, time);
+        }
+    }
+
+    private static void remember(Key key, double time) {
+        synchronized (cache) {
+            cache.put(key, time);
+        }
+    }
+
+    // Returns null if the input can't be fingerprinted.
+    private static Key keyOf(Reflex.MethodRef1<?, ?, ?> reference, Object input, CpuStopwatch.Mode mode) {
+        byte[] fingerprint = fingerprint(input);
+        return (fingerprint != null) ? new Key(reference.getMethod(), mode, fingerprint) : null;
+    }
+
+    /**
+     * Returns a SHA-256 digest of the input's contents, or null if they can't be fingerprinted.
+     */
+    static byte[] fingerprint(Object input) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new Error(ex); // Every JVM has SHA-256
+        }
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new DigestOutputStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }, digest)));
+        try {
+            if (!writeContents(out, input)) {
+                return null;
+            }
+            out.flush();
+        } catch (IOException ex) {
+            throw new Error(ex); // Nothing is actually written anywhere
+        }
+        return digest.digest();
+    }
+
+    // Writes the type and contents of the value, or returns false if it can't.
+    private static boolean writeContents(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeUTF("null");
+            return true;
+        }
+        out.writeUTF(value.getClass().getName());
+        if (value instanceof byte[]) {
+            byte[] a = (byte[])value;
+            out.writeInt(a.length);
+            out.write(a);
+        } else if (value instanceof short[]) {
+            short[] a = (short[])value;
+            out.writeInt(a.length);
+            for (short x : a) {
+                out.writeShort(x);
+            }
+        } else if (value instanceof int[]) {
+            int[] a = (int[])value;
+            out.writeInt(a.length);
+            for (int x : a) {
+                out.writeInt(x);
+            }
+        } else if (value instanceof long[]) {
+            long[] a = (long[])value;
+            out.writeInt(a.length);
+            for (long x : a) {
+                out.writeLong(x);
+            }
+        } else if (value instanceof char[]) {
+            char[] a = (char[])value;
+            out.writeInt(a.length);
+            for (char x : a) {
+                out.writeChar(x);
+            }
+        } else if (value instanceof boolean[]) {
+            boolean[] a = (boolean[])value;
+            out.writeInt(a.length);
+            for (boolean x : a) {
+                out.writeBoolean(x);
+            }
+        } else if (value instanceof float[]) {
+            float[] a = (float[])value;
+            out.writeInt(a.length);
+            for (float x : a) {
+                out.writeFloat(x);
+            }
+        } else if (value instanceof double[]) {
+            double[] a = (double[])value;
+            out.writeInt(a.length);
+            for (double x : a) {
+                out.writeDouble(x);
+            }
+        } else if (value instanceof Object[]) {
+            Object[] a = (Object[])value;
+            out.writeInt(a.length);
+            for (Object x : a) {
+                if (!writeContents(out, x)) {
+                    return false;
+                }
+            }
+        } else if (value instanceof List) {
+            List<?> list = (List<?>)value;
+            out.writeInt(list.size());
+            for (Object x : list) {
+                if (!writeContents(out, x)) {
+                    return false;
+                }
+            }
+        } else if (value instanceof String || value instanceof Number || value instanceof Boolean || value instanceof Character) {
+            if (!value.getClass().getName().startsWith("java.")) {
+                return false; // Who knows what a Number subclass contains
+            }
+            String s = value.toString();
+            out.writeInt(s.length());
+            out.writeChars(s);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    static int cacheSize() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    static void clearCache() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package fi.helsinki.cs.tmc.edutestutils.timing;
+
+import java.util.concurrent.Callable;
+import org.junit.runners.model.Statement;
+
+/**
+ * Runs code on a thread with a bigger stack, e.g. to test deeply recursive solutions.
+ *
+ * <p>
+ * Usage:
+ *
+ * <p>
+ * <code>
+ * int depth = StackRunner.call(64 * StackRunner.MB, new Callable&lt;Integer&gt;() {<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;public Integer call() {<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;return tree.depth();<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;}<br>
+ * });
+ * </code>
+ *
+ * <p>
+ * The default stack of a thread overflows after some thousands of nested
+ * calls, which recursive traversals of big inputs easily exceed.
+ * Threads are pooled by stack size, so repeated calls don't pay for
+ * creating a thread with a big stack every time.
+ *
+ * <p>
+ * To run whole test methods on a bigger stack, see
+ * {@link CpuTimeLimit#setStackSize(long)}.
+ *
+ * <p>
+ * Inside a test limited by {@link CpuTimeLimit}, the CPU time of the
+ * thread counts toward the test's limit, and the thread is stopped with
+ * the test if it runs out of time. Its allocations don't count toward
+ * a {@link MemoryLimit}.
+ *
+ * <p>
+ * <b>NOTE:</b> the JVM may round the stack size or, on some platforms,
+ * ignore it.
+ */
+public final class StackRunner {
+    public static final long KB = 1024;
+    public static final long MB = 1024 * KB;
+
+    private StackRunner() {
+    }
+
+    /**
+     * Calls the callable on a thread with the given stack size in bytes and returns its result.
+     *
+     * @throws Exception Whatever the callable throws, including errors like {@link StackOverflowError}.
+     * @throws InterruptedException If the calling thread is interrupted while waiting.
+     *                              The callable is interrupted too.
+     */
+    public static <T> T call(long stackSize, final Callable<T> callable) throws Exception {
+        final Object[] result = new Object[1];
+        TestThread task = new TestThread("StackRunner", new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                result[0] = callable.call();
+            }
+        });
+
+        // Inside a time limited test, the worker counts as part of the test.
+        TestThread test = TestThread.current();
+        Thread worker = TestThreadPool.execute(stackSize, task);
+        if (test != null) {
+            test.addHelper(worker);
+        }
+        try {
+            while (!task.finished) {
+                task.awaitFinished(0);
+            }
+        } catch (InterruptedException e) {
+            // Probably stopped by a time limit, so stop the task too.
+            task.stopRequested = true;
+            TestThreadPool.discard(worker);
+            worker.interrupt();
+            throw e;
+        } finally {
+            if (test != null) {
+                test.removeHelper(worker);
+            }
+        }
+
+        Throwable t = task.exceptionFromTest;
+        if (t instanceof Exception) {
+            throw (Exception)t;
+        } else if (t instanceof Error) {
+            throw (Error)t;
+        } else if (t != null) {
+            throw new RuntimeException(t);
+        }
+        @SuppressWarnings("unchecked")
+        T value = (T)result[0];
+        return value;
+    }
+
+    /**
+     * Runs the runnable on a thread with the given stack size in bytes.
+     *
+     * <p>
+     * If the calling thread is interrupted while waiting, the runnable is
+     * interrupted too, and this throws a {@link RuntimeException} with the
+     * calling thread's interrupt flag set.
+     */
+    public static void run(long stackSize, final Runnable runnable) {
+        try {
+            call(stackSize, new Callable<Void>() {
+                public Void call() {
+                    runnable.run();
+                    return null;
+                }
+            });
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for the runnable", e);
+        } catch (Exception e) {
+            throw new RuntimeException(e); // The runnable can only throw unchecked exceptions.
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package fi.helsinki.cs.tmc.edutestutils.timing;
+
+import fi.helsinki.cs.tmc.edutestutils.classloaders.LibraryClasses;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Periodically samples the stack of a thread to find out where it spends its time.
+ *
+ * <p>
+ * Each sample is attributed to the topmost frame that isn't part of the JDK,
+ * JUnit or this library, so that time spent in e.g. {@code ArrayList.contains}
+ * shows up on the line of student code calling it, and a short test isn't
+ * dominated by the frames of the test runner. See {@link LibraryClasses}.
+ *
+ * <p>
+ * Sampling runs in a daemon thread. With the default interval of 10ms
+ * the overhead is negligible.
+ *
+ * @see CpuTimeLimit#setProfiling(boolean)
+ */
+public class StackSampler {
+    private final Thread target;
+    private final long intervalMillis;
+    private final Map<StackTraceElement, int[]> counts = new HashMap<StackTraceElement, int[]>();
+    private int totalSamples = 0;
+    private Thread samplerThread;
+
+    /**
+     * Creates a sampler for the given thread with a 10ms interval.
+     */
+    public StackSampler(Thread target) {
+        this(target, 10);
+    }
+
+    /**
+     * Creates a sampler for the given thread.
+     */
+    public StackSampler(Thread target, long intervalMillis) {
+        this.target = target;
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * Starts sampling in a background thread.
+     */
+    public synchronized void start() {
+        if (samplerThread != null) {
+            throw new IllegalStateException("Already started");
+        }
+        samplerThread = new Thread("StackSampler") {
+            @Override
+            public void run() {
+                while (!isInterrupted() && target.isAlive()) {
+                    sample();
+                    try {
+                        Thread.sleep(intervalMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        };
+        samplerThread.setDaemon(true);
+        samplerThread.start();
+    }
+
+    /**
+     * Stops sampling. The samples taken so far are kept.
+     */
+    public synchronized void stop() {
+        if (samplerThread != null) {
+            samplerThread.interrupt();
+        }
+    }
+
+    /**
+     * Takes one sample immediately.
+     */
+    public void sample() {
+        StackTraceElement frame = interestingFrame(target.getStackTrace());
+        synchronized (this) {
+            totalSamples++;
+            if (frame != null) {
+                int[] count = counts.get(frame);
+                if (count == null) {
+                    counts.put(frame, new int[] { 1 });
+                } else {
+                    count[0]++;
+                }
+            }
+        }
+    }
+
+    private static StackTraceElement interestingFrame(StackTraceElement[] trace) {
+        for (StackTraceElement frame : trace) {
+            if (!LibraryClasses.isLibraryClass(frame.getClassName())) {
+                return frame;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of samples taken so far.
+     */
+    public synchronized int getSampleCount() {
+        return totalSamples;
+    }
+
+    /**
+     * Returns the most frequently sampled frames, most frequent first.
+     */
+    public synchronized List<StackTraceElement> getHotFrames(int max) {
+        List<StackTraceElement> frames = new ArrayList<StackTraceElement>(counts.keySet());
+        Collections.sort(frames, new Comparator<StackTraceElement>() {
+            public int compare(StackTraceElement a, StackTraceElement b) {
+                return counts.get(b)[0] - counts.get(a)[0];
+            }
+        });
+        if (frames.size() > max) {
+            frames = frames.subList(0, max);
+        }
+        return new ArrayList<StackTraceElement>(frames);
+    }
+
+    /**
+     * Returns the number of samples attributed to the given frame.
+     */
+    public synchronized int getCount(StackTraceElement frame) {
+        int[] count = counts.get(frame);
+        return (count != null) ? count[0] : 0;
+    }
+
+    /**
+     * Returns a summary of the most frequently sampled frames, e.g.
+     * {@code "Most time was spent at:\n  62% Main.sum(Main.java:12)\n ..."},
+     * or null if there are no samples.
+     */
+    public synchronized String getSummary(int max) {
+        if (totalSamples == 0 || counts.isEmpty()) {
+            return null;
+        }
+        DecimalFormat pct = new DecimalFormat("0%");
+        StringBuilder sb = new StringBuilder("Most time was spent at:");
+        for (StackTraceElement frame : getHotFrames(max)) {
+            sb.append("\n  ").append(pct.format(getCount(frame) / (double)totalSamples)).append(" ").append(frame);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,134 @@
+package fi.helsinki.cs.tmc.edutestutils.timing;
+
+import fi.helsinki.cs.tmc.edutestutils.utils.InputWaits;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Recognizes test threads that are stuck in a way no amount of waiting will fix.
+ *
+ * <p>
+ * Two situations are recognized: a deadlock involving the test thread or
+ * a thread in its group, and the test thread waiting for more input that
+ * doesn't come.
+ *
+ * <p>
+ * A thread waits for input when it sits in a read of the {@link System#in}
+ * of {@link fi.helsinki.cs.tmc.edutestutils.MockStdio}, as marked in
+ * {@link InputWaits}, or of the real console, without using CPU. Exhausted
+ * mocked input ends instead of blocking, but a blocking source like a pipe
+ * may wait forever. Only the test thread is inspected, so the program that
+ * {@link fi.helsinki.cs.tmc.edutestutils.StdioDialog} runs on a thread of
+ * its own isn't; the dialog's step timeout covers it instead.
+ */
+class StallDetector {
+    // How long the thread must sit in a stdin read without using CPU
+    // before we decide it's waiting for input that never comes.
+    private static final long STDIN_STALL_NANOS = 1000L * 1000 * 1000;
+    private static final long STDIN_STALL_MAX_CPU_NANOS = 10L * 1000 * 1000;
+
+    private final Thread thread;
+    private final ThreadGroup group;
+    private final ThreadMXBean bean;
+
+    private long stalledSince = -1;
+    private long stallCpuTime = 0;
+
+    public StallDetector(Thread thread, ThreadGroup group) {
+        this.thread = thread;
+        this.group = group;
+        this.bean = ManagementFactory.getThreadMXBean();
+    }
+
+    /**
+     * Returns a description of why the thread is stuck, or null if it isn't.
+     */
+    public String check() {
+        String deadlock = checkDeadlock();
+        if (deadlock != null) {
+            return deadlock;
+        }
+        return checkStdinStall();
+    }
+
+    private String checkDeadlock() {
+        long[] ids = bean.findDeadlockedThreads();
+        if (ids == null) {
+            return null;
+        }
+
+        boolean involvesUs = false;
+        for (long id : ids) {
+            if (id == thread.getId() || isInGroup(id)) {
+                involvesUs = true;
+            }
+        }
+        if (!involvesUs) {
+            return null;
+        }
+
+        StringBuilder sb = new StringBuilder("Deadlock detected:");
+        for (ThreadInfo info : bean.getThreadInfo(ids, true, true)) {
+            if (info == null) {
+                continue;
+            }
+            sb.append("\n\"").append(info.getThreadName()).append("\" waits for ").append(info.getLockName());
+            if (info.getLockOwnerName() != null) {
+                sb.append(" held by \"").append(info.getLockOwnerName()).append("\"");
+            }
+            StackTraceElement[] trace = info.getStackTrace();
+            if (trace.length > 0) {
+                sb.append("\n    at ").append(trace[0]);
+            }
+        }
+        return sb.toString();
+    }
+
+    private boolean isInGroup(long threadId) {
+        if (group == null) {
+            return false;
+        }
+        Thread[] threads = new Thread[group.activeCount() + 8];
+        int count = group.enumerate(threads, true);
+        for (int i = 0; i < count; ++i) {
+            if (threads[i].getId() == threadId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String checkStdinStall() {
+        if (!(InputWaits.isReading(thread) || isReadingConsole(thread.getStackTrace()))) {
+            stalledSince = -1;
+            return null;
+        }
+
+        long cpuTime = bean.getThreadCpuTime(thread.getId());
+        long now = System.nanoTime();
+        // Some streams, e.g. PipedInputStream, wake up now and then while
+        // waiting, so a little CPU use doesn't count as progress.
+        if (stalledSince == -1 || cpuTime - stallCpuTime > STDIN_STALL_MAX_CPU_NANOS) {
+            stalledSince = now;
+            stallCpuTime = cpuTime;
+            return null;
+        }
+        if (now - stalledSince < STDIN_STALL_NANOS) {
+            return null;
+        }
+        return "The program has waited for input from System.in for over a second without getting any. "
+                + "Does it try to read more input than it was given?";
+    }
+
+    private static boolean isReadingConsole(StackTraceElement[] trace) {
+        // When System.in isn't mocked, the console is a FileInputStream. Reading an actual file never
+        // blocks for long without using CPU, so this is a good enough guess.
+        for (int i = 0; i < trace.length && i < 5; ++i) {
+            if (trace[i].getClassName().equals("java.io.FileInputStream") && trace[i].getMethodName().startsWith("read")) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,244 @@
+package fi.helsinki.cs.tmc.edutestutils.timing;
+
+import fi.helsinki.cs.tmc.edutestutils.classloaders.InstrumentationHooks;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.runners.model.Statement;
+
+/**
+ * Runs a test statement on its own thread so that a watchdog can observe it.
+ *
+ * <p>
+ * The object may also be run as a plain {@link Runnable} on another thread,
+ * e.g. a virtual or pooled one, in which case it only holds the test's state.
+ *
+ * <p>
+ * When several rules limit the same test, the outermost one runs it on a
+ * {@code TestThread}, and the others add a {@link Watch} to that thread
+ * for the outer rule's watchdog to check instead of starting threads of their own.
+ */
+class TestThread extends Thread {
+    private static final ThreadLocal<TestThread> current = new ThreadLocal<TestThread>();
+
+    /**
+     * A check that a watchdog makes on the test besides its own.
+     */
+    interface Watch {
+        /**
+         * Returns the exception to fail the test with, or null to let it continue.
+         */
+        Throwable check();
+
+        /**
+         * Returns how often, in milliseconds, {@link #check()} should be called.
+         */
+        long getCheckInterval();
+    }
+
+    private final Statement statement;
+    private final Object finishedLock = new Object();
+    private CpuStopwatch.Mode cpuTimeMode = null;
+    private volatile CpuStopwatch stopwatch = null;
+    private boolean measuringAllocations = false;
+    private final List<Watch> watches = new CopyOnWriteArrayList<Watch>();
+    private final List<Helper> helpers = new CopyOnWriteArrayList<Helper>();
+    private volatile double finishedHelpersCpuTime = 0;
+
+    public volatile boolean finished = false;
+    public volatile boolean stopRequested = false; // Set by a watchdog before it interrupts the test.
+    public volatile Throwable exceptionFromTest = null;
+    public volatile double cpuTimeUsed = 0;
+    public volatile long allocatedBytes = 0;
+
+    public TestThread(String name, Statement statement) {
+        this(null, name, statement);
+    }
+
+    public TestThread(ThreadGroup group, String name, Statement statement) {
+        super(group, name);
+        this.statement = statement;
+    }
+
+    public TestThread(ThreadGroup group, String name, Statement statement, long stackSize) {
+        super(group, null, name, stackSize);
+        this.statement = statement;
+    }
+
+    /**
+     * Returns the test whose statement the current thread is running, or null.
+     */
+    public static TestThread current() {
+        return current.get();
+    }
+
+    /**
+     * Makes the thread record its own CPU time in {@link #cpuTimeUsed} when it finishes.
+     * Must be called before the thread is started.
+     *
+     * <p>
+     * A watchdog can't read the CPU time of a thread that has already
+     * finished, so the thread must measure itself.
+     */
+    public void measureCpuTime(CpuStopwatch.Mode mode) {
+        this.cpuTimeMode = mode;
+    }
+
+    /**
+     * Makes the thread record the bytes it allocated in {@link #allocatedBytes} when it finishes.
+     * Must be called before the thread is started, and only if {@link MemoryLimit#isSupported()}.
+     *
+     * <p>
+     * Like with {@link #measureCpuTime(CpuStopwatch.Mode)}, a watchdog can't
+     * read the figure after the thread has finished.
+     */
+    public void measureAllocations() {
+        this.measuringAllocations = true;
+    }
+
+    public void addWatch(Watch watch) {
+        watches.add(watch);
+    }
+
+    public void removeWatch(Watch watch) {
+        watches.remove(watch);
+    }
+
+    /**
+     * Makes the checks added with {@link #addWatch(Watch)} and returns
+     * the first exception one of them gives, or null.
+     */
+    public Throwable checkWatches() {
+        for (Watch watch : watches) {
+            Throwable failure = watch.check();
+            if (failure != null) {
+                return failure;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns how long a watchdog that would check every {@code millis}
+     * milliseconds may wait to also check the added watches in time.
+     */
+    public long checkInterval(long millis) {
+        for (Watch watch : watches) {
+            millis = Math.min(millis, watch.getCheckInterval());
+        }
+        return millis;
+    }
+
+    /**
+     * Returns the CPU time the test has used so far, or 0 if not measured.
+     * Only meaningful when called from the thread running the test or after it has finished.
+     */
+    public double getElapsedCpuTime() {
+        if (finished) {
+            return cpuTimeUsed;
+        }
+        return (stopwatch != null) ? stopwatch.getElapsedTime() + getHelperCpuTime() : 0;
+    }
+
+    /**
+     * Makes a thread that runs part of the test for it, e.g. for {@link StackRunner},
+     * count as part of the test until {@link #removeHelper(Thread)}.
+     *
+     * <p>
+     * Its CPU time is included in {@link #getHelperCpuTime()}, and
+     * {@link #stopHelpers(boolean)} stops it with the test.
+     */
+    public void addHelper(Thread thread) {
+        CpuStopwatch helperStopwatch = (cpuTimeMode != null) ? new CpuStopwatch(cpuTimeMode, thread.getId()) : null;
+        helpers.add(new Helper(thread, helperStopwatch));
+    }
+
+    public void removeHelper(Thread thread) {
+        for (Helper helper : helpers) {
+            if (helper.thread == thread) {
+                if (helper.stopwatch != null) {
+                    finishedHelpersCpuTime += Math.max(helper.stopwatch.getElapsedTime(), 0);
+                }
+                helpers.remove(helper);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the CPU time used by the threads added with {@link #addHelper(Thread)},
+     * or 0 if CPU time isn't measured.
+     */
+    public double getHelperCpuTime() {
+        double total = finishedHelpersCpuTime;
+        for (Helper helper : helpers) {
+            if (helper.stopwatch != null) {
+                total += Math.max(helper.stopwatch.getElapsedTime(), 0);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Interrupts, and optionally cancels, the threads added with
+     * {@link #addHelper(Thread)}. They aren't returned to their pool.
+     */
+    public void stopHelpers(boolean cancelInstrumentedCode) {
+        for (Helper helper : helpers) {
+            TestThreadPool.discard(helper.thread);
+            helper.thread.interrupt();
+            if (cancelInstrumentedCode) {
+                InstrumentationHooks.cancel(helper.thread);
+            }
+        }
+    }
+
+    /**
+     * Waits until the test finishes or the given time passes.
+     */
+    public void awaitFinished(long millis) throws InterruptedException {
+        synchronized (finishedLock) {
+            if (!finished) {
+                finishedLock.wait(millis);
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        current.set(this);
+        if (cpuTimeMode != null) {
+            stopwatch = new CpuStopwatch(cpuTimeMode);
+        }
+        try {
+            statement.evaluate();
+        } catch (InterruptedException e) {
+            if (!stopRequested) {
+                exceptionFromTest = e;
+            }
+        } catch (Throwable e) {
+            exceptionFromTest = e;
+        } finally {
+            if (stopwatch != null) {
+                cpuTimeUsed = stopwatch.getElapsedTime() + getHelperCpuTime();
+            }
+            if (measuringAllocations) {
+                allocatedBytes = MemoryLimit.getAllocatedBytes(Thread.currentThread());
+            }
+            current.remove();
+            synchronized (finishedLock) {
+                finished = true;
+                finishedLock.notifyAll();
+            }
+        }
+    }
+
+    private static class Helper {
+        final Thread thread;
+        final CpuStopwatch stopwatch;
+
+        Helper(Thread thread, CpuStopwatch stopwatch) {
+            this.thread = thread;
+            this.stopwatch = stopwatch;
+        }
+    }
+}
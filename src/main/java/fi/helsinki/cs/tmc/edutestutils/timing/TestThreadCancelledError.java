@@ -0,0 +1,16 @@
+package fi.helsinki.cs.tmc.edutestutils.timing;
+
+/**
+ * Thrown inside instrumented code to stop a test thread that has run out of time.
+ *
+ * <p>
+ * This is an {@link Error} so that student code catching
+ * {@link Exception} doesn't accidentally stop it.
+ *
+ * @see CpuTimeLimit#setCancellingInstrumentedCode(boolean)
+ */
+public class TestThreadCancelledError extends Error {
+    public TestThreadCancelledError() {
+        super("Test thread cancelled after exceeding its time limit");
+    }
+}
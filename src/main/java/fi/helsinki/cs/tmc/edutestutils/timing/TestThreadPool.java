@@ -0,0 +1,160 @@
+package fi.helsinki.cs.tmc.edutestutils.timing;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps idle threads of each requested stack size for reuse.
+ *
+ * <p>
+ * A thread whose task timed out is {@link #discard(Thread) discarded}
+ * rather than returned to the pool, because it may still be running
+ * the task or be cancelled by {@code InstrumentationHooks}.
+ */
+final class TestThreadPool {
+    private static final long IDLE_TIMEOUT = 60000; // How long an idle thread is kept, in milliseconds.
+
+    private static final Map<Long, Deque<Worker>> idle = new HashMap<Long, Deque<Worker>>();
+
+    private TestThreadPool() {
+    }
+
+    /**
+     * Runs the task on a pooled thread with the given stack size.
+     *
+     * @return The thread running the task.
+     */
+    static Thread execute(long stackSize, Runnable task) {
+        while (true) {
+            Worker worker;
+            synchronized (idle) {
+                Deque<Worker> workers = idle.get(stackSize);
+                worker = (workers != null) ? workers.pollFirst() : null;
+            }
+            if (worker == null) {
+                worker = new Worker(stackSize);
+                worker.assign(task);
+                worker.start();
+                return worker;
+            }
+            if (worker.assign(task)) {
+                return worker;
+            }
+            // The worker quit just now. Try another.
+        }
+    }
+
+    /**
+     * Makes a thread returned by {@link #execute(long, Runnable)} exit
+     * instead of returning to the pool once its task ends.
+     * Other threads are ignored.
+     */
+    static void discard(Thread thread) {
+        if (thread instanceof Worker) {
+            ((Worker)thread).retire();
+        }
+    }
+
+    static int getIdleCount(long stackSize) {
+        synchronized (idle) {
+            Deque<Worker> workers = idle.get(stackSize);
+            return (workers != null) ? workers.size() : 0;
+        }
+    }
+
+    private static void release(Worker worker) {
+        synchronized (idle) {
+            Deque<Worker> workers = idle.get(worker.stackSize);
+            if (workers == null) {
+                workers = new ArrayDeque<Worker>();
+                idle.put(worker.stackSize, workers);
+            }
+            workers.addFirst(worker);
+        }
+    }
+
+    private static void remove(Worker worker) {
+        synchronized (idle) {
+            Deque<Worker> workers = idle.get(worker.stackSize);
+            if (workers != null) {
+                workers.remove(worker);
+            }
+        }
+    }
+
+    private static class Worker extends Thread {
+        private final long stackSize;
+        private final Object lock = new Object();
+        private Runnable task = null;
+        private boolean retired = false;
+
+        Worker(long stackSize) {
+            super(null, null, "TestThreadPool.Worker", stackSize);
+            this.stackSize = stackSize;
+            setDaemon(true);
+        }
+
+        boolean assign(Runnable task) {
+            synchronized (lock) {
+                if (retired) {
+                    return false;
+                }
+                this.task = task;
+                lock.notifyAll();
+                return true;
+            }
+        }
+
+        void retire() {
+            synchronized (lock) {
+                retired = true;
+                lock.notifyAll();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Runnable next = awaitTask();
+                if (next == null) {
+                    remove(this);
+                    return;
+                }
+
+                next.run();
+
+                Thread.interrupted(); // Don't leak an interrupt into the next task.
+                synchronized (lock) {
+                    task = null;
+                    if (retired) {
+                        return;
+                    }
+                }
+                release(this);
+            }
+        }
+
+        // Returns null when the worker should exit.
+        private Runnable awaitTask() {
+            synchronized (lock) {
+                long deadline = System.currentTimeMillis() + IDLE_TIMEOUT;
+                while (task == null && !retired) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        // Once retired, assign() refuses new tasks.
+                        retired = true;
+                        break;
+                    }
+                    try {
+                        lock.wait(remaining);
+                    } catch (InterruptedException e) {
+                        // Stale interrupt from a timed out task. Keep waiting.
+                    }
+                }
+                return task;
+            }
+        }
+    }
+}
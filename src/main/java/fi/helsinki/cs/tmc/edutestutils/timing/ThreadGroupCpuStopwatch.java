@@ -0,0 +1,80 @@
+package fi.helsinki.cs.tmc.edutestutils.timing;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Measures the total CPU time used by all threads in a thread group
+ * (including subgroups), in seconds, since the object's creation.
+ *
+ * <p>
+ * Threads are discovered when {@link #getElapsedTime()} is called.
+ * The last measurement of a thread that has since terminated is kept,
+ * but a thread that starts and terminates between two calls goes unnoticed,
+ * so call it frequently.
+ */
+class ThreadGroupCpuStopwatch {
+    private final CpuStopwatch.Mode mode;
+    private final ThreadGroup group;
+    private final ThreadMXBean bean;
+
+    // Thread ID -> { time at first sight (or 0 if started after us), latest time }
+    private final Map<Long, long[]> times = new HashMap<Long, long[]>();
+
+    public ThreadGroupCpuStopwatch(CpuStopwatch.Mode mode, ThreadGroup group) {
+        if (!CpuStopwatch.isSupported()) {
+            throw new UnsupportedOperationException("Thread CPU time measurement not supported by this JVM");
+        }
+        this.mode = mode;
+        this.group = group;
+        this.bean = ManagementFactory.getThreadMXBean();
+        this.bean.setThreadCpuTimeEnabled(true);
+
+        for (Thread thread : getThreads()) {
+            long t = CpuStopwatch.getThreadTime(bean, mode, thread.getId());
+            if (t >= 0) {
+                times.put(thread.getId(), new long[] { t, t });
+            }
+        }
+    }
+
+    /**
+     * Returns the live threads in the group.
+     */
+    public Thread[] getThreads() {
+        Thread[] threads = new Thread[group.activeCount() + 8];
+        int count;
+        while ((count = group.enumerate(threads, true)) == threads.length) {
+            threads = new Thread[threads.length * 2];
+        }
+        Thread[] result = new Thread[count];
+        System.arraycopy(threads, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * Returns the CPU time used by the threads since the creation of this object.
+     */
+    public synchronized double getElapsedTime() {
+        for (Thread thread : getThreads()) {
+            long t = CpuStopwatch.getThreadTime(bean, mode, thread.getId());
+            if (t < 0) {
+                continue; // Terminated just now
+            }
+            long[] entry = times.get(thread.getId());
+            if (entry == null) {
+                times.put(thread.getId(), new long[] { 0, t });
+            } else {
+                entry[1] = t;
+            }
+        }
+
+        long total = 0;
+        for (long[] entry : times.values()) {
+            total += entry[1] - entry[0];
+        }
+        return total / 1000000000.0;
+    }
+}
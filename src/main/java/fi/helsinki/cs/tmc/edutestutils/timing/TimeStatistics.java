@@ -0,0 +1,163 @@
+package fi.helsinki.cs.tmc.edutestutils.timing;
+
+import java.util.Arrays;
+
+/**
+ * Streaming statistics of a series of durations in nanoseconds.
+ *
+ * <p>
+ * Recording a value doesn't allocate memory, so timing many small
+ * operations doesn't cause garbage collection that would distort the
+ * results. All storage is allocated by the constructor.
+ *
+ * <p>
+ * The minimum, maximum, mean and variance are exact. Percentiles come
+ * from a histogram whose buckets are exact up to 32ns and, above that,
+ * split each power of two into 32 parts, so a percentile is at most about
+ * 3% above the true value.
+ *
+ * @see CpuStopwatch#recordLaps(int)
+ */
+public class TimeStatistics {
+    private static final int PRECISION_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << PRECISION_BITS;
+
+    private final long[] histogram = new long[(64 - PRECISION_BITS) * SUB_BUCKETS];
+    private long count;
+    private long min;
+    private long max;
+    private double mean;
+    private double m2; // Sum of squared differences from the mean (Welford's method)
+
+    /**
+     * Creates empty statistics.
+     */
+    public TimeStatistics() {
+        reset();
+    }
+
+    /**
+     * Forgets all recorded values.
+     */
+    public void reset() {
+        Arrays.fill(histogram, 0);
+        count = 0;
+        min = Long.MAX_VALUE;
+        max = Long.MIN_VALUE;
+        mean = 0;
+        m2 = 0;
+    }
+
+    /**
+     * Records a duration in nanoseconds. Negative values are recorded as 0.
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        count++;
+        min = Math.min(min, nanos);
+        max = Math.max(max, nanos);
+        double delta = nanos - mean;
+        mean += delta / count;
+        m2 += delta * (nanos - mean);
+        histogram[bucketOf(nanos)]++;
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int)value;
+        }
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - PRECISION_BITS;
+        return (shift << PRECISION_BITS) + (int)(value >>> shift);
+    }
+
+    static long highestValueInBucket(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket >>> PRECISION_BITS) - 1;
+        long sub = bucket - ((long)shift << PRECISION_BITS);
+        return ((sub + 1) << shift) - 1;
+    }
+
+    /**
+     * Returns the number of recorded values.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the smallest recorded value, or 0 if there are none.
+     */
+    public long getMin() {
+        return (count > 0) ? min : 0;
+    }
+
+    /**
+     * Returns the largest recorded value, or 0 if there are none.
+     */
+    public long getMax() {
+        return (count > 0) ? max : 0;
+    }
+
+    /**
+     * Returns the mean of the recorded values, or 0 if there are none.
+     */
+    public double getMean() {
+        return mean;
+    }
+
+    /**
+     * Returns the sample variance of the recorded values, or 0 if there are fewer than two.
+     */
+    public double getVariance() {
+        return (count > 1) ? m2 / (count - 1) : 0;
+    }
+
+    /**
+     * Returns the sample standard deviation of the recorded values.
+     */
+    public double getStandardDeviation() {
+        return Math.sqrt(getVariance());
+    }
+
+    /**
+     * Returns approximately the given percentile (0-100) of the recorded values,
+     * or 0 if there are none.
+     */
+    public long getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+        }
+        if (percentile == 0) {
+            return getMin();
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long)Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < histogram.length; ++i) {
+            seen += histogram[i];
+            if (seen >= rank) {
+                return Math.max(min, Math.min(max, highestValueInBucket(i)));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Returns e.g. {@code "n=1000 min=812ns mean=905ns p50=880ns p99=1.52us max=3.1us"}.
+     */
+    @Override
+    public String toString() {
+        return "n=" + count
+                + " min=" + Benchmark.formatTime(getMin() / 1e9)
+                + " mean=" + Benchmark.formatTime(getMean() / 1e9)
+                + " p50=" + Benchmark.formatTime(getPercentile(50) / 1e9)
+                + " p99=" + Benchmark.formatTime(getPercentile(99) / 1e9)
+                + " max=" + Benchmark.formatTime(getMax() / 1e9);
+    }
+}
@@ -0,0 +1,83 @@
+package fi.helsinki.cs.tmc.edutestutils.timing;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Creates virtual threads on JVMs that have them (Java 21 and later).
+ *
+ * <p>
+ * Everything is done through reflection so that the library still
+ * compiles and runs on older JVMs.
+ */
+final class VirtualThreads {
+    private static final Method ofVirtual;
+    private static final Method builderName;
+    private static final Method builderUnstarted;
+    private static final Method isVirtual;
+    private static final boolean supported;
+
+    static {
+        Method ov = null, bn = null, bu = null, iv = null;
+        boolean ok = false;
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            ov = Thread.class.getMethod("ofVirtual");
+            bn = builderClass.getMethod("name", String.class);
+            bu = builderClass.getMethod("unstarted", Runnable.class);
+            iv = Thread.class.getMethod("isVirtual");
+            // Fails on JVMs where virtual threads are a disabled preview feature.
+            ov.invoke(null);
+            ok = true;
+        } catch (ClassNotFoundException e) {
+        } catch (NoSuchMethodException e) {
+        } catch (IllegalAccessException e) {
+        } catch (InvocationTargetException e) {
+        }
+        ofVirtual = ov;
+        builderName = bn;
+        builderUnstarted = bu;
+        isVirtual = iv;
+        supported = ok;
+    }
+
+    private VirtualThreads() {
+    }
+
+    static boolean isSupported() {
+        return supported;
+    }
+
+    /**
+     * Creates an unstarted virtual thread.
+     *
+     * @throws UnsupportedOperationException If the JVM has no virtual threads.
+     */
+    static Thread newThread(String name, Runnable runnable) {
+        if (!supported) {
+            throw new UnsupportedOperationException("Virtual threads not supported by this JVM");
+        }
+        try {
+            Object builder = ofVirtual.invoke(null);
+            builder = builderName.invoke(builder, name);
+            return (Thread)builderUnstarted.invoke(builder, runnable);
+        } catch (IllegalAccessException e) {
+            throw new UnsupportedOperationException(e);
+        } catch (InvocationTargetException e) {
+            throw new UnsupportedOperationException(e.getCause());
+        }
+    }
+
+    static boolean isVirtual(Thread thread) {
+        if (!supported) {
+            return false;
+        }
+        try {
+            return (Boolean)isVirtual.invoke(thread);
+        } catch (IllegalAccessException e) {
+            return false;
+        } catch (InvocationTargetException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package fi.helsinki.cs.tmc.edutestutils.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An output stream whose buffering can be turned on and off.
+ *
+ * <p>
+ * While buffering, writes are collected into a buffer and {@link #flush()}
+ * does nothing, so that an autoflushing {@link java.io.PrintStream} on top
+ * of this doesn't push every line through separately. The buffer is
+ * written out when it fills up, by {@link #flushBuffer()} and when
+ * buffering is turned off.
+ */
+public class BufferingOutputStream extends OutputStream {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final OutputStream out;
+    private final byte[] buf = new byte[BUFFER_SIZE];
+    private int count = 0;
+    private boolean buffering = false;
+
+    public BufferingOutputStream(OutputStream out) {
+        this.out = out;
+    }
+
+    public synchronized boolean isBuffering() {
+        return buffering;
+    }
+
+    /**
+     * Turns buffering on or off. Turning it off flushes the buffer.
+     */
+    public synchronized void setBuffering(boolean enable) throws IOException {
+        if (!enable) {
+            flushBuffer();
+        }
+        this.buffering = enable;
+    }
+
+    @Override
+    public synchronized void write(int b) throws IOException {
+        if (!buffering) {
+            out.write(b);
+            return;
+        }
+        if (count == buf.length) {
+            writeBuffer();
+        }
+        buf[count++] = (byte)b;
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        if (!buffering) {
+            out.write(b, off, len);
+            return;
+        }
+        if (len > buf.length - count) {
+            writeBuffer();
+            if (len >= buf.length) {
+                out.write(b, off, len);
+                return;
+            }
+        }
+        System.arraycopy(b, off, buf, count, len);
+        count += len;
+    }
+
+    private void writeBuffer() throws IOException {
+        if (count > 0) {
+            // Empty the buffer first so that it stays consistent if the write throws.
+            int n = count;
+            count = 0;
+            out.write(buf, 0, n);
+        }
+    }
+
+    /**
+     * Writes out the buffer and flushes the underlying stream, even while buffering.
+     */
+    public synchronized void flushBuffer() throws IOException {
+        writeBuffer();
+        out.flush();
+    }
+
+    /**
+     * Does nothing while buffering. Otherwise flushes the underlying stream.
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        if (!buffering) {
+            out.flush();
+        }
+    }
+}
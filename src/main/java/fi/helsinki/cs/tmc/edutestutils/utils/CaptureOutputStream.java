@@ -0,0 +1,46 @@
+package fi.helsinki.cs.tmc.edutestutils.utils;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An output stream that keeps what is written to it for reading back.
+ */
+public abstract class CaptureOutputStream extends OutputStream {
+
+    /**
+     * Returns the number of bytes written so far.
+     */
+    public abstract long size();
+
+    /**
+     * Returns a read-only view of the bytes written so far.
+     *
+     * <p>
+     * The view doesn't change when more is written, but is invalid after {@link #reset()}.
+     */
+    public ByteBuffer getBuffer() {
+        return getBuffer(0);
+    }
+
+    /**
+     * Returns a read-only view of the bytes written so far from the given offset on.
+     *
+     * <p>
+     * Lets a reader that has already seen the beginning look at just the
+     * rest. An offset at or past the end gives an empty view.
+     */
+    public abstract ByteBuffer getBuffer(long from);
+
+    /**
+     * Forgets everything written so far.
+     */
+    public abstract void reset();
+
+    /**
+     * Releases any resources held. The stream may not be used afterwards.
+     */
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,229 @@
+package fi.helsinki.cs.tmc.edutestutils.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+/**
+ * Decodes captured output into text incrementally.
+ *
+ * <p>
+ * Each call to {@link #getText()} only decodes what has been written to
+ * the capture since the previous call. <tt>\r\n</tt> is converted to
+ * <tt>\n</tt> on the way, and ASCII is converted without a
+ * {@link CharsetDecoder} when the charset allows it.
+ *
+ * <p>
+ * The returned text is a view of the decoded characters, which are only
+ * ever appended to, so it stays valid and unchanged as more output
+ * arrives. A multi-byte character whose bytes haven't all been written
+ * yet is left out.
+ *
+ * <p>
+ * Only the new bytes are read from the capture, so a spilled
+ * {@link SpillingOutputStream} is mapped a piece at a time. The decoded
+ * characters are all kept on the heap, though, two bytes each, so text
+ * of spilled output still takes memory in proportion to its length.
+ * Check huge outputs with {@link fi.helsinki.cs.tmc.edutestutils.OutputFingerprint} instead.
+ */
+public class DecodedCapture {
+
+    private final CaptureOutputStream capture;
+    private final CharsetDecoder decoder;
+    private final boolean asciiCompatible;
+    private final boolean latin1;
+
+    private char[] chars;
+    private int length = 0;
+    private long decodedBytes = 0;
+    private boolean pendingCr = false;
+    private CharBuffer decoded = CharBuffer.allocate(0);
+    private Text text;
+    private boolean shared = false; // Whether chars may be referenced from outside.
+
+    public DecodedCapture(CaptureOutputStream capture, Charset charset) {
+        this(capture, charset, new char[256]);
+    }
+
+    /**
+     * Decodes into the given array until more room is needed.
+     * Its previous contents are ignored.
+     */
+    public DecodedCapture(CaptureOutputStream capture, Charset charset, char[] chars) {
+        this.capture = capture;
+        this.chars = chars;
+        this.text = new Text(chars, 0);
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        String name = charset.name();
+        this.latin1 = name.equals("ISO-8859-1");
+        this.asciiCompatible = latin1 || name.equals("UTF-8") || name.equals("US-ASCII");
+    }
+
+    /**
+     * Returns the text of everything captured so far.
+     */
+    public synchronized CharSequence getText() {
+        shared = true;
+        return update();
+    }
+
+    /**
+     * Returns the text of everything captured so far as a string.
+     *
+     * <p>
+     * The string is cached, so reading it again without new output doesn't copy anything.
+     */
+    public synchronized String getString() {
+        return update().toString();
+    }
+
+    private Text update() {
+        long size = capture.size();
+        if (size < decodedBytes) {
+            // The capture was reset behind our back.
+            reset();
+        }
+        if (size > decodedBytes) {
+            decode(capture.getBuffer(decodedBytes));
+            text = null;
+        }
+        if (text == null) {
+            if (pendingCr) {
+                // A '\n' may still replace it, so give this text a copy of its own.
+                char[] copy = Arrays.copyOf(chars, length + 1);
+                copy[length] = '\r';
+                text = new Text(copy, length + 1);
+            } else {
+                text = new Text(chars, length);
+            }
+        }
+        return text;
+    }
+
+    /**
+     * Starts over for a capture that has been reset.
+     */
+    public synchronized void reset() {
+        if (shared) {
+            // Leave the old array to texts that were handed out.
+            chars = new char[256];
+            shared = false;
+        }
+        length = 0;
+        decodedBytes = 0;
+        pendingCr = false;
+        decoder.reset();
+        text = new Text(chars, 0);
+    }
+
+    /**
+     * Starts over with an empty array and returns the old one for reuse,
+     * or null if text handed out by {@link #getText()} may still refer to it.
+     */
+    public synchronized char[] detach() {
+        char[] detached = shared ? null : chars;
+        chars = new char[0];
+        shared = false;
+        reset();
+        return detached;
+    }
+
+    private void decode(ByteBuffer bytes) {
+        int pos = 0;
+        int end = bytes.limit();
+        ensureCapacity(length + (end - pos));
+        if (asciiCompatible) {
+            while (pos < end) {
+                byte b = bytes.get(pos);
+                if (b < 0 && !latin1) {
+                    break;
+                }
+                append((char)(b & 0xff));
+                pos++;
+            }
+        }
+        if (pos < end) {
+            bytes.position(pos);
+            int maxChars = (int)Math.ceil((end - pos) * (double)decoder.maxCharsPerByte());
+            if (decoded.capacity() < maxChars) {
+                decoded = CharBuffer.allocate(maxChars);
+            }
+            ensureCapacity(length + maxChars + 1);
+            // Bytes of an incomplete character are left for the next time.
+            decoder.decode(bytes, decoded, false);
+            pos = bytes.position();
+            decoded.flip();
+            while (decoded.hasRemaining()) {
+                append(decoded.get());
+            }
+            decoded.clear();
+        }
+        decodedBytes += pos;
+    }
+
+    private void append(char c) {
+        if (pendingCr) {
+            pendingCr = false;
+            if (c == '\n') {
+                chars[length++] = '\n';
+                return;
+            }
+            chars[length++] = '\r';
+        }
+        if (c == '\r') {
+            pendingCr = true;
+        } else {
+            chars[length++] = c;
+        }
+    }
+
+    private void ensureCapacity(int needed) {
+        // One more for a pending '\r'
+        if (needed + 1 > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(needed + 1, 2 * chars.length));
+        }
+    }
+
+    // Characters below length are never changed, so this can share the array.
+    private static class Text implements CharSequence {
+        private final char[] chars;
+        private final int length;
+        private String string;
+
+        Text(char[] chars, int length) {
+            this.chars = chars;
+            this.length = length;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        public char charAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", length: " + length);
+            }
+            return chars[index];
+        }
+
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > length || start > end) {
+                throw new IndexOutOfBoundsException("Range [" + start + ", " + end + ") of length " + length);
+            }
+            return new String(chars, start, end - start);
+        }
+
+        @Override
+        public synchronized String toString() {
+            if (string == null) {
+                string = new String(chars, 0, length);
+            }
+            return string;
+        }
+    }
+}
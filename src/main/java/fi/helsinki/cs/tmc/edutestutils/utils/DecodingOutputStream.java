@@ -0,0 +1,66 @@
+package fi.helsinki.cs.tmc.edutestutils.utils;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * An output stream that decodes what is written to it and passes the characters on as they arrive.
+ *
+ * <p>
+ * A multi-byte character split between two writes is passed on once
+ * all of its bytes have been written. Malformed input is replaced by
+ * the charset's replacement character.
+ */
+public abstract class DecodingOutputStream extends OutputStream {
+
+    private final CharsetDecoder decoder;
+    private ByteBuffer pending = ByteBuffer.allocate(64);
+    private CharBuffer chars = CharBuffer.allocate(64);
+
+    public DecodingOutputStream(Charset charset) {
+        decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Called with each run of decoded characters, in order.
+     *
+     * <p>
+     * The buffer is reused after this returns.
+     */
+    protected abstract void onChars(CharBuffer chars);
+
+    @Override
+    public void write(int b) {
+        write(new byte[] { (byte)b }, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+        if (pending.remaining() < len) {
+            ByteBuffer bigger = ByteBuffer.allocate(pending.position() + len);
+            pending.flip();
+            bigger.put(pending);
+            pending = bigger;
+        }
+        pending.put(b, off, len);
+        pending.flip();
+        if (chars.capacity() < pending.remaining()) {
+            chars = CharBuffer.allocate(pending.remaining());
+        }
+        // Incomplete multi-byte characters stay in the buffer.
+        decoder.decode(pending, chars, false);
+        pending.compact();
+        chars.flip();
+        try {
+            onChars(chars);
+        } finally {
+            chars.clear();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package fi.helsinki.cs.tmc.edutestutils.utils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of threads that are inside a read of a mocked input stream.
+ *
+ * <p>
+ * A thread that is marked here and uses no CPU is waiting for more input,
+ * whatever the stream reads from underneath, e.g. a queue or a pipe.
+ *
+ * <p>
+ * For internal use. See
+ * {@link fi.helsinki.cs.tmc.edutestutils.timing.CpuTimeLimit#setDetectingStalls(boolean)}.
+ */
+public final class InputWaits {
+    // Nesting depth of reads per thread, in case one marked stream reads another.
+    private static final Map<Thread, int[]> reading = new ConcurrentHashMap<Thread, int[]>();
+
+    private InputWaits() {
+    }
+
+    /**
+     * Marks the current thread as reading. Must be paired with {@link #exit()}.
+     */
+    public static void enter() {
+        Thread current = Thread.currentThread();
+        int[] depth = reading.get(current);
+        if (depth == null) {
+            reading.put(current, new int[] { 1 });
+        } else {
+            depth[0]++;
+        }
+    }
+
+    /**
+     * Ends a read started with {@link #enter()}.
+     */
+    public static void exit() {
+        Thread current = Thread.currentThread();
+        int[] depth = reading.get(current);
+        if (depth != null && --depth[0] == 0) {
+            reading.remove(current);
+        }
+    }
+
+    /**
+     * Tells whether the given thread is inside a read of a mocked input stream.
+     */
+    public static boolean isReading(Thread thread) {
+        return reading.containsKey(thread);
+    }
+}
@@ -0,0 +1,70 @@
+package fi.helsinki.cs.tmc.edutestutils.utils;
+
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+
+/**
+ * An input stream of lines taken from an iterator only as they are read.
+ *
+ * <p>
+ * Each line is followed by <tt>\n</tt>. Only the line being read is kept
+ * in memory, so the input may be arbitrarily long or generated on the fly.
+ */
+public class LineIteratorInputStream extends InputStream {
+
+    private final Iterator<String> lines;
+    private final Charset charset;
+    private byte[] current = new byte[0];
+    private int pos = 0;
+
+    public LineIteratorInputStream(Iterator<String> lines, Charset charset) {
+        this.lines = lines;
+        this.charset = charset;
+    }
+
+    // Returns false at the end of input.
+    private boolean fill() {
+        while (pos >= current.length) {
+            if (!lines.hasNext()) {
+                return false;
+            }
+            current = (lines.next() + "\n").getBytes(charset);
+            pos = 0;
+        }
+        return true;
+    }
+
+    @Override
+    public int read() {
+        if (!fill()) {
+            return -1;
+        }
+        return current[pos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        int total = 0;
+        // Stop at the end of a line so that the next line isn't
+        // taken from the iterator before it's needed.
+        while (total < len && fill()) {
+            int n = Math.min(len - total, current.length - pos);
+            System.arraycopy(current, pos, b, off + total, n);
+            pos += n;
+            total += n;
+            if (pos == current.length) {
+                break;
+            }
+        }
+        return (total == 0) ? -1 : total;
+    }
+
+    @Override
+    public int available() {
+        return current.length - pos;
+    }
+}
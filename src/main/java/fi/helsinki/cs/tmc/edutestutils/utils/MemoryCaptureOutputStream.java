@@ -0,0 +1,82 @@
+package fi.helsinki.cs.tmc.edutestutils.utils;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Captures output in a growing byte array, like {@link java.io.ByteArrayOutputStream}
+ * but with a view of the captured bytes that doesn't copy them.
+ */
+public class MemoryCaptureOutputStream extends CaptureOutputStream {
+
+    private byte[] buf;
+    private int count = 0;
+
+    public MemoryCaptureOutputStream() {
+        this(256);
+    }
+
+    public MemoryCaptureOutputStream(int initialCapacity) {
+        buf = new byte[initialCapacity];
+    }
+
+    /**
+     * Captures into the given array until more room is needed.
+     * Its previous contents are ignored.
+     */
+    public MemoryCaptureOutputStream(byte[] buf) {
+        this.buf = buf;
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed < 0) {
+            throw new OutOfMemoryError("Captured output too large");
+        }
+        if (needed > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(needed, 2 * buf.length));
+        }
+    }
+
+    @Override
+    public synchronized void write(int b) {
+        ensureCapacity(count + 1);
+        buf[count++] = (byte)b;
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+        ensureCapacity(count + len);
+        System.arraycopy(b, off, buf, count, len);
+        count += len;
+    }
+
+    @Override
+    public synchronized long size() {
+        return count;
+    }
+
+    @Override
+    public synchronized ByteBuffer getBuffer(long from) {
+        int start = (int)Math.min(Math.max(from, 0), count);
+        return ByteBuffer.wrap(buf, start, count - start).slice().asReadOnlyBuffer();
+    }
+
+    @Override
+    public synchronized void reset() {
+        count = 0;
+    }
+
+    /**
+     * Empties the capture and returns its array for reuse.
+     *
+     * <p>
+     * Later writes go to a new array, so they can't reach the returned one.
+     * Buffers previously returned by {@link #getBuffer(long)} must not be used anymore.
+     */
+    public synchronized byte[] detach() {
+        byte[] detached = buf;
+        buf = new byte[0];
+        count = 0;
+        return detached;
+    }
+}
@@ -0,0 +1,35 @@
+package fi.helsinki.cs.tmc.edutestutils.utils;
+
+import java.io.ByteArrayInputStream;
+
+/**
+ * A {@link ByteArrayInputStream} that can be pointed at new contents instead of creating another one.
+ */
+public class ResettableByteArrayInputStream extends ByteArrayInputStream {
+
+    public ResettableByteArrayInputStream(byte[] buf) {
+        super(buf);
+    }
+
+    /**
+     * Starts reading the first {@code length} bytes of the given array from the beginning.
+     *
+     * <p>
+     * The array is not copied.
+     */
+    public synchronized void setContents(byte[] buf, int length) {
+        this.buf = buf;
+        this.count = length;
+        this.pos = 0;
+        this.mark = 0;
+    }
+
+    /**
+     * Returns the array being read for reuse, and continues as if at the end of an empty one.
+     */
+    public synchronized byte[] detach() {
+        byte[] detached = buf;
+        setContents(new byte[0], 0);
+        return detached;
+    }
+}
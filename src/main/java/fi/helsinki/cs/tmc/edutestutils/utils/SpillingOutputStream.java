@@ -0,0 +1,181 @@
+package fi.helsinki.cs.tmc.edutestutils.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Captures output in memory up to a threshold and in a temporary file after that.
+ *
+ * <p>
+ * Heap usage stays flat however much is written. Once the threshold is
+ * exceeded, everything written so far is moved to the file, and the rest
+ * is written there too through a {@link FileChannel}. {@link #getBuffer(long)} maps the
+ * file into memory instead of reading it onto the heap.
+ *
+ * <p>
+ * The file is opened with {@link StandardOpenOption#DELETE_ON_CLOSE} and
+ * deleted by {@link #reset()} or {@link #close()}.
+ */
+public class SpillingOutputStream extends CaptureOutputStream {
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private final int threshold;
+    private MemoryCaptureOutputStream memory;
+    private Path file;
+    private FileChannel channel;
+    private ByteBuffer writeBuffer;
+    private long size = 0;
+
+    /**
+     * Creates a stream that keeps up to {@code threshold} bytes in memory.
+     */
+    public SpillingOutputStream(int threshold) {
+        this.threshold = threshold;
+        this.memory = newMemory();
+    }
+
+    private MemoryCaptureOutputStream newMemory() {
+        return new MemoryCaptureOutputStream(Math.min(threshold, 8192));
+    }
+
+    /**
+     * Tells whether output has been written to a file.
+     */
+    public synchronized boolean isSpilled() {
+        return channel != null;
+    }
+
+    @Override
+    public synchronized void write(int b) throws IOException {
+        if (channel == null && size + 1 > threshold) {
+            spill();
+        }
+        size++;
+        if (channel == null) {
+            memory.write(b);
+        } else {
+            if (!writeBuffer.hasRemaining()) {
+                drainWriteBuffer();
+            }
+            writeBuffer.put((byte)b);
+        }
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        if (channel == null && size + len > threshold) {
+            spill();
+        }
+        size += len;
+        if (channel == null) {
+            memory.write(b, off, len);
+        } else {
+            while (len > 0) {
+                if (!writeBuffer.hasRemaining()) {
+                    drainWriteBuffer();
+                }
+                int n = Math.min(len, writeBuffer.remaining());
+                writeBuffer.put(b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+    }
+
+    private void spill() throws IOException {
+        file = Files.createTempFile("edutestutils-capture", ".out");
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE);
+        writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+        ByteBuffer head = memory.getBuffer();
+        while (head.hasRemaining()) {
+            channel.write(head);
+        }
+        // Don't keep the threshold-sized array around.
+        memory = newMemory();
+    }
+
+    private void drainWriteBuffer() throws IOException {
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) {
+            channel.write(writeBuffer);
+        }
+        writeBuffer.clear();
+    }
+
+    // For tests
+    synchronized Path getFile() {
+        return file;
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        if (channel != null) {
+            drainWriteBuffer();
+        }
+    }
+
+    @Override
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * When the output has been spilled, the view is a read-only memory
+     * mapping of just the requested part of the file.
+     *
+     * @throws IllegalStateException If the requested part is too big to map
+     *                               (over 2GB) or the file can't be read.
+     */
+    @Override
+    public synchronized ByteBuffer getBuffer(long from) {
+        if (channel == null) {
+            return memory.getBuffer(from);
+        }
+        long start = Math.min(Math.max(from, 0), size);
+        if (size - start > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Captured output too large to map: " + (size - start) + " bytes");
+        }
+        try {
+            flush();
+            return channel.map(FileChannel.MapMode.READ_ONLY, start, size - start);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Failed to read back captured output", ex);
+        }
+    }
+
+    @Override
+    public synchronized void reset() {
+        deleteFile();
+        memory.reset();
+        size = 0;
+    }
+
+    @Override
+    public synchronized void close() {
+        reset();
+    }
+
+    private void deleteFile() {
+        if (channel != null) {
+            try {
+                channel.close();
+                // In case DELETE_ON_CLOSE didn't, e.g. because a mapping is still open.
+                Files.deleteIfExists(file);
+            } catch (IOException ex) {
+                // Nothing more we can do
+            }
+            channel = null;
+            file = null;
+            writeBuffer = null;
+        }
+    }
+}
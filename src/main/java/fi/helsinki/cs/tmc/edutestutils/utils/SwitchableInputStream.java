@@ -1,10 +1,15 @@
 package fi.helsinki.cs.tmc.edutestutils.utils;
 
 import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 
 /**
  * Delegates to another input stream that can be switched at any time.
+ *
+ * <p>
+ * Threads reading the stream are marked in {@link InputWaits} for the
+ * duration of the read.
  */
 public class SwitchableInputStream extends FilterInputStream {
 
@@ -19,5 +24,25 @@ public class SwitchableInputStream extends FilterInputStream {
     public void setUnderlying(InputStream in) {
         this.in = in;
     }
+
+    @Override
+    public int read() throws IOException {
+        InputWaits.enter();
+        try {
+            return super.read();
+        } finally {
+            InputWaits.exit();
+        }
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        InputWaits.enter();
+        try {
+            return super.read(b, off, len);
+        } finally {
+            InputWaits.exit();
+        }
+    }
     
 }
@@ -1,6 +1,7 @@
 package fi.helsinki.cs.tmc.edutestutils.utils;
 
 import java.io.FilterOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
 
 /**
@@ -19,5 +20,11 @@ public class SwitchableOutputStream extends FilterOutputStream {
     public void setUnderlying(OutputStream out) {
         this.out = out;
     }
+
+    // FilterOutputStream would write one byte at a time.
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+    }
     
 }
@@ -83,6 +83,56 @@ public class EduAssertTest {
         }
     }
     
+    @Test
+    public void testContainsNumber_IndexNegativeCases() {
+        assertFalse(containsNumber(8, new OutputIndex("7")));
+        assertFalse(containsNumber(1000, new OutputIndex("10000")));
+        assertFalse(containsNumber(1000, new OutputIndex("100")));
+        assertFalse(containsNumber(1000, new OutputIndex("1 000")));
+        assertFalse(containsNumber(-1000, new OutputIndex("- 1000")));
+    }
+    
+    @Test
+    public void testContainsNumber_IndexAgreesWithString() {
+        OutputIndex index = new OutputIndex("The interesting result is 001,2300. \"200\" it is! foo-07,80bar 1.00000001 x");
+        assertContainsNumber(1.23, index);
+        assertContainsNumber(200, index);
+        assertContainsNumber(-7.8, index);
+        assertContainsNumber(1, index);
+        assertFalse(containsNumber(7.8, index));
+        assertFalse(containsNumber(1.0001, index));
+    }
+    
+    @Test
+    public void testAssertContainsNumber_IndexFailureMessage() {
+        try {
+            assertContainsNumber(3, new OutputIndex("1 2"));
+            fail();
+        } catch (AssertionError e) {
+            assertEquals("Expected to find the number 3.0 in `1 2`", e.getMessage());
+        }
+    }
+    
+    @Test
+    public void testAssertMatchesAndContains_Index() {
+        OutputIndex index = new OutputIndex("aabbbab");
+        assertMatches("(a|b)*", index);
+        assertMatches("darn", "(a|b)*", index);
+        assertContains("bba", index);
+        try {
+            assertMatches("a|b", index);
+            fail();
+        } catch (AssertionError e) {
+            assertEquals("\"aabbbab\" does not have the required form.", e.getMessage());
+        }
+        try {
+            assertContains("c", index);
+            fail();
+        } catch (AssertionError e) {
+            assertEquals("Expected to find \"c\" in `aabbbab`", e.getMessage());
+        }
+    }
+    
     @Test
     public void testAssertEqualsIgnoreSpaces_PositiveCases() {
         assertEqualsIgnoreSpaces("one  two  three", "one two three");
@@ -0,0 +1,225 @@
+package fi.helsinki.cs.tmc.edutestutils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+import static org.junit.Assert.*;
+
+public class ExpectedOutputMatcherTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static void print(ExpectedOutputMatcher matcher, String s) {
+        byte[] bytes = s.getBytes(UTF8);
+        matcher.write(bytes, 0, bytes.length);
+    }
+
+    private static String failureOf(ExpectedOutputMatcher matcher, String s) {
+        try {
+            print(matcher, s);
+        } catch (AssertionError e) {
+            return e.getMessage();
+        }
+        fail("Expected divergence on \"" + s + "\"");
+        return null;
+    }
+
+    @Test
+    public void failsOnTheFirstDifferingWrite() {
+        ExpectedOutputMatcher matcher = new ExpectedOutputMatcher("one\ntwo\nthree\n", false, UTF8);
+        print(matcher, "one\n");
+        print(matcher, "tw");
+        String message = failureOf(matcher, "x\nthree\n");
+        assertTrue(message, message.contains("line 2"));
+        assertTrue(message, message.contains("\"two\""));
+        assertTrue(message, message.contains("\"twx\""));
+
+        // Stays failed, even if the program catches the error.
+        failureOf(matcher, "more");
+        try {
+            matcher.verifyComplete();
+            fail();
+        } catch (AssertionError e) {
+        }
+    }
+
+    @Test
+    public void failsOnExcessAndMissingOutput() {
+        ExpectedOutputMatcher matcher = new ExpectedOutputMatcher("ab", false, UTF8);
+        String message = failureOf(matcher, "abc");
+        assertTrue(message, message.contains("after the expected output ends"));
+
+        matcher = new ExpectedOutputMatcher("abc", false, UTF8);
+        print(matcher, "ab");
+        try {
+            matcher.verifyComplete();
+            fail();
+        } catch (AssertionError e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("\"c\""));
+        }
+    }
+
+    @Test
+    public void canIgnoreSpacesLikeCollapseWhitespace() {
+        String expected = " a  b\t c \n\n  d  \n";
+        String printed = "\r\na b c\r\n\r\nd";
+        assertEquals(EduAssert.collapseWhitespace(expected), EduAssert.collapseWhitespace(printed));
+
+        ExpectedOutputMatcher matcher = new ExpectedOutputMatcher(expected, true, UTF8);
+        for (char c : printed.toCharArray()) {
+            print(matcher, String.valueOf(c));
+        }
+        matcher.verifyComplete();
+
+        matcher = new ExpectedOutputMatcher(expected, true, UTF8);
+        String message = failureOf(matcher, "a b c\nd");
+        assertTrue(message, message.contains("line 2"));
+    }
+
+    @Test
+    public void readsTheExpectedTextAsTheOutputProceeds() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100000; ++i) {
+            sb.append(i).append('\n');
+        }
+        final int[] read = new int[1];
+        final boolean[] closed = new boolean[1];
+        Reader reader = new StringReader(sb.toString()) {
+            @Override
+            public int read(char[] cbuf, int off, int len) throws IOException {
+                int n = super.read(cbuf, off, len);
+                read[0] += Math.max(n, 0);
+                return n;
+            }
+
+            @Override
+            public void close() {
+                closed[0] = true;
+                super.close();
+            }
+        };
+
+        ExpectedOutputMatcher matcher = new ExpectedOutputMatcher(reader, false, UTF8);
+        print(matcher, "0\n1\n2\n");
+        assertTrue("read " + read[0], read[0] < 100000);
+        assertFalse(closed[0]);
+
+        String message = failureOf(matcher, "4\n");
+        assertTrue(message, message.contains("line 4"));
+        assertTrue(message, message.contains("\"3\""));
+        matcher.close();
+        assertTrue(closed[0]);
+    }
+
+    @Test
+    public void cutsLongLinesInMessages() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10000; ++i) {
+            sb.append('a');
+        }
+        ExpectedOutputMatcher matcher = new ExpectedOutputMatcher(sb.toString(), false, UTF8);
+        print(matcher, sb.substring(0, 5000));
+        String message = failureOf(matcher, "b");
+        assertTrue(message, message.contains("..."));
+        assertTrue(message, message.length() < 300);
+
+        matcher = new ExpectedOutputMatcher(sb.toString(), false, UTF8);
+        print(matcher, "aaa");
+        try {
+            matcher.verifyComplete();
+            fail();
+        } catch (AssertionError e) {
+            assertTrue(e.getMessage(), e.getMessage().length() < 200);
+        }
+    }
+
+    @Test
+    public void decodesCharactersSplitBetweenWrites() {
+        ExpectedOutputMatcher matcher = new ExpectedOutputMatcher("hä", false, UTF8);
+        byte[] bytes = "hä".getBytes(UTF8);
+        for (int i = 0; i < bytes.length; ++i) {
+            matcher.write(bytes, i, 1);
+        }
+        matcher.verifyComplete();
+    }
+
+    @Test
+    public void mockStdioAbortsWrongProgramsEarly() throws Throwable {
+        final MockStdio io = new MockStdio();
+        final int[] printedLines = new int[1];
+        Statement test = new Statement() {
+            @Override
+            public void evaluate() {
+                io.expectSysOut("1\n2\n3\n");
+                for (int i = 1; i <= 1000; ++i) {
+                    System.out.println(i * 2);
+                    printedLines[0]++;
+                }
+            }
+        };
+        try {
+            io.apply(test, Description.EMPTY).evaluate();
+            fail();
+        } catch (AssertionError e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("line 1"));
+        }
+        assertEquals(0, printedLines[0]);
+        assertFalse(io.isEnabled());
+    }
+
+    @Test
+    public void mockStdioReadsTheExpectedOutputFromAFile() throws Throwable {
+        final File file = File.createTempFile("ExpectedOutputMatcherTest", ".txt");
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            out.write("Hello\r\nWorld\n".getBytes());
+            out.close();
+            final MockStdio io = new MockStdio();
+            Statement test = new Statement() {
+                @Override
+                public void evaluate() throws Throwable {
+                    io.expectSysOut(file.toPath());
+                    System.out.println("Hello");
+                    System.out.println("There");
+                }
+            };
+            try {
+                io.apply(test, Description.EMPTY).evaluate();
+                fail();
+            } catch (AssertionError e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("\"World\""));
+            }
+        } finally {
+            // Fails on Windows if the file was left open
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void mockStdioRethrowsCaughtFailure() throws Throwable {
+        final MockStdio io = new MockStdio();
+        Statement test = new Statement() {
+            @Override
+            public void evaluate() {
+                io.expectSysOutIgnoreSpaces("yes");
+                try {
+                    System.out.println("no");
+                } catch (Throwable t) {
+                    // A careless program swallowing everything
+                }
+            }
+        };
+        try {
+            io.apply(test, Description.EMPTY).evaluate();
+            fail();
+        } catch (AssertionError e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("\"yes\""));
+        }
+    }
+}
@@ -1,5 +1,9 @@
 package fi.helsinki.cs.tmc.edutestutils;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
 import java.util.NoSuchElementException;
 import java.util.Scanner;
 import static org.junit.Assert.*;
@@ -45,4 +49,70 @@ public class MockInOutTest {
         mio.close();
     }
 
-}
\ No newline at end of file
+    @Test
+    public void readsInputLazilyFromLines() {
+        MockInOut mio = new MockInOut(Arrays.asList("1", "2").iterator());
+        try {
+            Scanner s = new Scanner(System.in);
+            assertEquals(3, s.nextInt() + s.nextInt());
+            assertFalse(s.hasNext());
+            assertNotNull(mio.getInput());
+        } finally {
+            mio.close();
+        }
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void getInputStreamRequiresStringInput() {
+        MockInOut mio = new MockInOut(Arrays.asList("1").iterator());
+        try {
+            mio.getInputStream();
+        } finally {
+            mio.close();
+        }
+    }
+
+    @Test
+    public void resetStartsOverWithNewInput() {
+        MockInOut mio = new MockInOut("");
+        try {
+            for (int i = 0; i < 3; ++i) {
+                mio.reset(i + " " + (i + 1) + "\n");
+                Scanner s = new Scanner(System.in);
+                System.out.println(s.nextInt() + s.nextInt());
+                assertEquals((2 * i + 1) + "\n", mio.getOutput());
+            }
+            mio.reset("1 2\n");
+            assertEquals("", mio.getOutput());
+            assertEquals(4, mio.getInputStream().available());
+        } finally {
+            mio.close();
+        }
+    }
+
+    @Test
+    public void closedInstanceDoesNotShareStreamsWithTheNext() throws IOException {
+        Object out = System.out;
+        MockInOut first = new MockInOut("ä");
+        PrintStream stream = System.out;
+        InputStream input = System.in;
+        System.out.print("x");
+        first.close();
+        assertTrue(System.out == out);
+
+        MockInOut second = new MockInOut("ö\n");
+        try {
+            assertTrue(System.out != stream);
+            // Code that kept the old stream doesn't disturb the new instance.
+            stream.print("stale");
+            stream.flush();
+            assertEquals("", second.getOutput());
+            assertTrue(System.in != input);
+            assertEquals(-1, input.read());
+            assertEquals("ö", new Scanner(System.in).nextLine());
+        } finally {
+            second.close();
+        }
+    }
+
+}
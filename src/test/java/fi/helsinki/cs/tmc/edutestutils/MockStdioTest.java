@@ -1,5 +1,9 @@
 package fi.helsinki.cs.tmc.edutestutils;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Iterator;
 import org.junit.After;
 import org.junit.Before;
 import java.util.Scanner;
@@ -41,6 +45,50 @@ public class MockStdioTest {
         assertEquals("hello", new Scanner(System.in).nextLine());
     }
     
+    @Test
+    public void allowsSettingStdinFromFile() throws Exception {
+        File file = File.createTempFile("MockStdioTest", ".txt");
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            out.write("1 2\n3\n".getBytes());
+            out.close();
+            io.setSysIn(file.toPath());
+            Scanner scanner = new Scanner(System.in);
+            assertEquals(6, scanner.nextInt() + scanner.nextInt() + scanner.nextInt());
+        } finally {
+            file.delete();
+        }
+    }
+    
+    @Test
+    public void allowsSettingStdinLazilyFromLines() {
+        final int[] generated = { 0 };
+        io.setSysIn(new Iterator<String>() {
+            public boolean hasNext() {
+                return generated[0] < 1000000;
+            }
+            public String next() {
+                return Integer.toString(generated[0]++);
+            }
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        });
+        Scanner scanner = new Scanner(System.in);
+        assertEquals(0, scanner.nextInt());
+        assertEquals(1, scanner.nextInt());
+        assertTrue("Generated " + generated[0] + " lines", generated[0] < 10000);
+    }
+    
+    @Test
+    public void allowsSettingStdinFromIterable() {
+        io.setSysIn(Arrays.asList("hello", "world"));
+        Scanner scanner = new Scanner(System.in);
+        assertEquals("hello", scanner.nextLine());
+        assertEquals("world", scanner.nextLine());
+        assertFalse(scanner.hasNextLine());
+    }
+    
     @Test
     public void convertsWindowsLineEndingsToUnix() {
         System.out.println("hello\r\nworld");
@@ -56,4 +104,49 @@ public class MockStdioTest {
         assertEquals("Hähä\n", io.getSysOut());
         assertEquals("Höhö\n", io.getSysErr());
     }
+    
+    @Test
+    public void spillsLargeOutputToDisk() {
+        io.setSpillThreshold(1024);
+        for (int i = 0; i < 1000; ++i) {
+            System.out.println("line " + i);
+        }
+        String out = io.getSysOut();
+        assertTrue(out.startsWith("line 0\nline 1\n"));
+        assertTrue(out.endsWith("line 999\n"));
+        assertEquals(out.length(), io.getSysOutBuffer().remaining());
+        assertEquals('l', io.getSysOutBuffer().get(0));
+    }
+    
+    @Test
+    public void checksExpectedOutputAsItIsPrinted() {
+        System.out.print("Hello ");
+        io.expectSysOut("Hello World\r\nBye\n");
+        System.out.println("World");
+        System.out.println("Bye");
+    }
+    
+    @Test
+    public void buffersOutputUntilRead() {
+        io.setBuffered(true);
+        System.out.println("hello");
+        System.err.print("world");
+        System.out.flush();
+        assertEquals("hello\n", io.getSysOut());
+        assertEquals("world", io.getSysErr());
+        io.setBuffered(false);
+        System.out.println("again");
+        assertEquals("hello\nagain\n", io.getSysOut());
+    }
+    
+    @Test
+    public void providesAViewOfTheOutput() {
+        System.out.print("abc\r\n");
+        CharSequence view = io.getSysOutView();
+        assertEquals("abc\n", view.toString());
+        System.out.print("dë");
+        assertEquals("abc\ndë", io.getSysOutView().toString());
+        assertEquals(4, view.length());
+        assertEquals("abc\ndë", io.getSysOut());
+    }
 }
@@ -0,0 +1,86 @@
+package fi.helsinki.cs.tmc.edutestutils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class OutputFingerprintTest {
+    @Rule
+    public MockStdio io = new MockStdio();
+
+    @Test
+    public void digestsNormalizedOutput() {
+        OutputFingerprint unix = OutputFingerprint.of("a\nb\n", false);
+        assertEquals(unix.getDigest(), OutputFingerprint.of("a\r\nb\r\n", false).getDigest());
+        assertFalse(unix.getDigest().equals(OutputFingerprint.of("a\nb", false).getDigest()));
+        // sha256sum of "a\nb\n"
+        assertEquals("911169ddaaf146aff539f58c26c489af3b892dff0fe283c1c264c65ae5aa59a2", unix.getDigest());
+        assertEquals(2, unix.getLineCount());
+
+        assertEquals(OutputFingerprint.of("x y\nz", true).getDigest(),
+                     OutputFingerprint.of("  x \t y \r\nz\n\n", true).getDigest());
+    }
+
+    @Test
+    public void findsTheFirstDifferingLine() {
+        OutputFingerprint expected = OutputFingerprint.of("1\n2\n3\n4\n", false);
+        assertEquals(0, OutputFingerprint.of("1\n2\n3\n4\n", false).findFirstDifferingLine(expected));
+        assertEquals(3, OutputFingerprint.of("1\n2\n5\n4\n", false).findFirstDifferingLine(expected));
+        assertEquals(4, OutputFingerprint.of("1\n2\n3\n", false).findFirstDifferingLine(expected));
+        assertEquals(5, OutputFingerprint.of("1\n2\n3\n4\n5\n", false).findFirstDifferingLine(expected));
+        assertEquals(4, OutputFingerprint.of("1\n2\n3\n4", false).findFirstDifferingLine(expected));
+    }
+
+    @Test
+    public void fingerprintsSysOutAgainstAFile() throws Exception {
+        File file = File.createTempFile("OutputFingerprintTest", ".txt");
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            for (int i = 0; i < 10000; ++i) {
+                out.write((i + "\r\n").getBytes());
+            }
+            out.close();
+            OutputFingerprint expected = OutputFingerprint.of(file.toPath(), false);
+            assertEquals(10000, expected.getLineCount());
+
+            System.out.println(0);
+            OutputFingerprint actual = io.fingerprintSysOut(expected);
+            for (int i = 1; i < 10000; ++i) {
+                System.out.println(i);
+            }
+            actual.assertMatches(expected);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void reportsTheDifferingLine() {
+        OutputFingerprint expected = OutputFingerprint.of("one\ntwo\nthree\n", true);
+        OutputFingerprint actual = io.fingerprintSysOut(expected);
+        System.out.println("one");
+        System.out.println("too");
+        System.out.println("three");
+        try {
+            actual.assertMatches(expected);
+            fail();
+        } catch (AssertionError e) {
+            assertTrue(e.getMessage(), e.getMessage().endsWith("line 2"));
+        }
+    }
+
+    @Test
+    public void mockInOutCanFingerprintOutput() {
+        MockInOut mio = new MockInOut("");
+        try {
+            OutputFingerprint actual = mio.fingerprintOutput(OutputFingerprint.of("hi\n", false));
+            System.out.println("hi");
+            System.out.flush();
+            assertEquals(OutputFingerprint.of("hi\n", false).getDigest(), actual.getDigest());
+        } finally {
+            mio.close();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package fi.helsinki.cs.tmc.edutestutils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class OutputIndexTest {
+    @Rule
+    public MockStdio io = new MockStdio();
+
+    @Test
+    public void indexesLinesAndWords() {
+        OutputIndex index = new OutputIndex("Hello  world\r\n\nBye!\n");
+        assertEquals(3, index.getLineCount());
+        assertEquals("Hello  world", index.getLine(0));
+        assertEquals("", index.getLine(1));
+        assertEquals("Bye!", index.getLine(2));
+        assertTrue(index.containsLine("Bye!"));
+        assertFalse(index.containsLine("Bye"));
+        assertEquals(0, index.getLineAt(5));
+        assertEquals(1, index.getLineAt(14));
+        assertEquals(2, index.getLineAt(16));
+
+        assertEquals(3, index.getWordCount());
+        assertEquals("world", index.getWord(1));
+        assertEquals(7, index.getWordPosition(1));
+        assertTrue(index.containsWord("Bye!"));
+        assertFalse(index.containsWord("Hello  world"));
+    }
+
+    @Test
+    public void indexesNumbersInOrder() {
+        OutputIndex index = new OutputIndex("x=3, y=-1,5 and 10");
+        assertEquals(3, index.getNumberCount());
+        assertArrayEquals(new double[] { 3, -1.5, 10 }, index.getNumbers(), 0);
+        assertEquals(7, index.getNumberPosition(1));
+        assertTrue(index.containsNumber(-1.5));
+        assertTrue(index.containsNumber(10.0000001));
+        assertFalse(index.containsNumber(4));
+        assertFalse(new OutputIndex("").containsNumber(0));
+        assertEquals(0, new OutputIndex("").getLineCount());
+    }
+
+    @Test
+    public void mockStdioReindexesOnlyNewOutput() {
+        System.out.println("1 2");
+        OutputIndex first = io.getSysOutIndex();
+        assertSame(first, io.getSysOutIndex());
+        assertTrue(first.containsNumber(2));
+
+        System.out.println("3");
+        OutputIndex second = io.getSysOutIndex();
+        assertNotSame(first, second);
+        assertTrue(second.containsNumber(3));
+        assertEquals(2, second.getLineCount());
+    }
+}
@@ -1,6 +1,9 @@
 package fi.helsinki.cs.tmc.edutestutils;
 
 import fi.helsinki.cs.tmc.edutestutils.ReflectionUtilsNewClassInstanceTest.MainTestSubject;
+import fi.helsinki.cs.tmc.edutestutils.classloaders.ClassTransformer;
+import fi.helsinki.cs.tmc.edutestutils.classloaders.ClassTransformerChain;
+import fi.helsinki.cs.tmc.edutestutils.classloaders.SingleClassLoader;
 import java.lang.reflect.Method;
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -82,6 +85,42 @@ public class ReflectionUtilsNewClassInstanceTest {
         assertEquals(1, dependeeInitCount);
     }
     
+    @Test
+    public void passesBytecodeThroughTransformersOncePerClassVersion() throws Throwable {
+        final int[] calls = new int[1];
+        ClassTransformerChain chain = new ClassTransformerChain(new ClassTransformer() {
+            public byte[] transform(String className, byte[] classFile) {
+                calls[0]++;
+                return classFile;
+            }
+        });
+        
+        Class<?> cls1 = ReflectionUtils.newInstanceOfClass(TestSubject.class.getName(), chain);
+        Class<?> cls2 = ReflectionUtils.newInstanceOfClass(TestSubject.class.getName(), chain);
+        assertNotSame(cls1, cls2);
+        assertEquals(1, calls[0]);
+        
+        chain.clearCache();
+        ReflectionUtils.newInstanceOfClass(TestSubject.class.getName(), chain);
+        assertEquals(2, calls[0]);
+    }
+    
+    @Test
+    public void addingATransformerDoesNotChangeASharedChain() throws Throwable {
+        ClassTransformerChain chain = new ClassTransformerChain();
+        SingleClassLoader loader = new SingleClassLoader(TestSubject.class.getName());
+        loader.setTransformerChain(chain);
+        loader.addTransformer(new ClassTransformer() {
+            public byte[] transform(String className, byte[] classFile) {
+                return classFile;
+            }
+        });
+        
+        assertTrue(chain.isEmpty());
+        assertNotSame(chain, loader.getTransformerChain());
+        assertEquals(1, loader.getTransformerChain().getTransformers().size());
+    }
+    
     @Test(expected=AssertionError.class)
     public void throwsAnAssertionErrorIfTheClassCannotBeFound() throws Throwable {
         ReflectionUtils.newInstanceOfClass("Nonexistent");
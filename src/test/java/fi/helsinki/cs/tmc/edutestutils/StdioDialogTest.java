@@ -0,0 +1,103 @@
+package fi.helsinki.cs.tmc.edutestutils;
+
+import java.util.Scanner;
+import org.junit.Rule;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class StdioDialogTest {
+    @Rule
+    public MockStdio io = new MockStdio();
+
+    private static final Runnable GREETER = new Runnable() {
+        public void run() {
+            Scanner scanner = new Scanner(System.in);
+            System.out.print("Name? ");
+            String name = scanner.nextLine();
+            System.out.println("Hello " + name + "!");
+            System.out.print("Age? ");
+            int age = Integer.parseInt(scanner.nextLine());
+            System.out.println("Next year you'll be " + (age + 1));
+        }
+    };
+
+    @Test
+    public void followsAMatchingDialog() throws Throwable {
+        StdioDialog dialog = new StdioDialog(io);
+        dialog.expect("Name? ").send("Arto")
+                .expect("Hello Arto!\nAge? ").send("41")
+                .expect("Next year you'll be 42\n");
+        dialog.run(GREETER);
+        assertTrue(io.getSysOut().endsWith("42\n"));
+    }
+
+    @Test
+    public void failsOnDivergingOutputWithoutWaiting() throws Throwable {
+        StdioDialog dialog = new StdioDialog(io);
+        dialog.setStepTimeout(30);
+        dialog.expect("Name? ").send("Arto").expect("Hi Arto!");
+        long start = System.currentTimeMillis();
+        try {
+            dialog.run(GREETER);
+            fail("Divergence not noticed");
+        } catch (AssertionError e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Expected \"Hi Arto!\" but the program printed \"H"));
+        }
+        assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+
+    @Test
+    public void failsWhenPromptNeverAppears() throws Throwable {
+        StdioDialog dialog = new StdioDialog(io);
+        dialog.setStepTimeout(0.3);
+        dialog.expect("Name? ").send("Arto").expect("Hello Arto!\nAge? ").send("x").expect("never");
+        try {
+            dialog.run(new Runnable() {
+                public void run() {
+                    Scanner scanner = new Scanner(System.in);
+                    System.out.print("Name? ");
+                    System.out.println("Hello " + scanner.nextLine() + "!");
+                    System.out.print("Age? ");
+                    while (!Thread.currentThread().isInterrupted()) {
+                    }
+                }
+            });
+            fail("Hang not noticed");
+        } catch (AssertionError e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Timed out waiting for \"never\""));
+        }
+    }
+
+    @Test
+    public void failsWhenProgramEndsEarly() throws Throwable {
+        StdioDialog dialog = new StdioDialog(io);
+        dialog.expect("Name? ").send("Arto").expect("Hello Arto!\nAge? ").send("x").expect("Next");
+        try {
+            dialog.run(GREETER);
+            fail("Early end not noticed");
+        } catch (AssertionError e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Program ended"));
+            assertTrue(e.getCause() instanceof NumberFormatException);
+        }
+    }
+
+    @Test
+    public void showsOnlyTheEndOfLongOutputAndTreatsCrlfAsNewline() throws Throwable {
+        StdioDialog dialog = new StdioDialog(io);
+        dialog.expect("line 0\nline 1\n").expect("never");
+        try {
+            dialog.run(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < 10000; ++i) {
+                        System.out.print("line " + i + "\r\n");
+                    }
+                }
+            });
+            fail("Divergence not noticed");
+        } catch (AssertionError e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Expected \"never\" but the program printed \"line \""));
+            assertTrue(e.getMessage(), e.getMessage().endsWith("line 9999\n"));
+            assertTrue(e.getMessage(), e.getMessage().length() < 1200);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package fi.helsinki.cs.tmc.edutestutils.classloaders;
+
+import java.lang.management.ManagementFactory;
+import javax.management.ObjectName;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ClassLoaderMetricsTest {
+    public static class Subject {
+    }
+
+    @Test
+    public void countsLoadersAndDefinedClasses() throws Exception {
+        long loadersBefore = ClassLoaderMetrics.getLoadersCreated();
+        long classesBefore = ClassLoaderMetrics.getClassesDefined();
+        long bytesBefore = ClassLoaderMetrics.getBytesDefined();
+
+        SingleClassLoader loader = new SingleClassLoader(Subject.class.getName());
+        Class<?> cls = loader.loadClass(Subject.class.getName());
+        assertSame(loader, cls.getClassLoader());
+
+        assertEquals(loadersBefore + 1, ClassLoaderMetrics.getLoadersCreated());
+        assertEquals(classesBefore + 1, ClassLoaderMetrics.getClassesDefined());
+        assertTrue(ClassLoaderMetrics.getBytesDefined() > bytesBefore);
+
+        boolean found = false;
+        for (ClassLoaderMetrics.LoaderInfo info : ClassLoaderMetrics.getLiveLoaders()) {
+            if (info.getClassNames().contains(Subject.class.getName())) {
+                assertEquals(1, info.getClassCount());
+                found = true;
+            }
+        }
+        assertTrue(found);
+    }
+
+    @Test
+    public void noticesUnloadedLoaders() throws Exception {
+        long unloadedBefore = ClassLoaderMetrics.getLoadersUnloaded();
+        loadAndForget();
+
+        for (int i = 0; i < 50 && ClassLoaderMetrics.getLoadersUnloaded() == unloadedBefore; ++i) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertTrue(ClassLoaderMetrics.getLoadersUnloaded() > unloadedBefore);
+    }
+
+    private void loadAndForget() throws Exception {
+        new SingleClassLoader(Subject.class.getName()).loadClass(Subject.class.getName());
+    }
+
+    @Test
+    public void canBeRegisteredInJmx() throws Exception {
+        ClassLoaderMetrics.registerMBean();
+        try {
+            ObjectName name = new ObjectName(ClassLoaderMetrics.OBJECT_NAME);
+            Object created = ManagementFactory.getPlatformMBeanServer().getAttribute(name, "LoadersCreated");
+            assertEquals(ClassLoaderMetrics.getLoadersCreated(), created);
+        } finally {
+            ClassLoaderMetrics.unregisterMBean();
+        }
+    }
+}
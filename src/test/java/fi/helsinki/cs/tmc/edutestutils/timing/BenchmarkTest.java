@@ -0,0 +1,106 @@
+package fi.helsinki.cs.tmc.edutestutils.timing;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class BenchmarkTest {
+    private static final int[] INPUT = new int[10000];
+
+    private static Benchmark quick(Benchmark.Operation op) {
+        Benchmark b = Benchmark.of(op);
+        b.setWarmupTime(0.05);
+        b.setRounds(5);
+        b.setMinRoundTime(0.01);
+        return b;
+    }
+
+    private static Benchmark linear() {
+        return quick(new Benchmark.Operation() {
+            public Object run() {
+                int sum = 0;
+                for (int x : INPUT) {
+                    sum += x;
+                }
+                return sum;
+            }
+        });
+    }
+
+    private static Benchmark quadratic() {
+        return quick(new Benchmark.Operation() {
+            public Object run() {
+                int sum = 0;
+                for (int i = 0; i < 300; ++i) {
+                    for (int x : INPUT) {
+                        sum += x ^ i;
+                    }
+                }
+                return sum;
+            }
+        });
+    }
+
+    @Test
+    public void reportsOrderedStatistics() throws Throwable {
+        Benchmark.Result result = linear().run();
+        assertEquals(5, result.getTimes().length);
+        assertTrue(result.getBatchSize() > 1);
+        assertTrue(result.getMean() > 0);
+        assertTrue(result.getTimes()[0] <= result.getMedian());
+        assertTrue(result.getMedian() <= result.getPercentile95());
+        assertTrue(result.toString(), result.toString().contains("5 rounds of "));
+        assertTrue(result.toString(), result.toString().contains(", max "));
+        assertEquals(result.getMax(), result.getPercentile95(), 0);
+    }
+
+    @Test
+    public void givesEachCallAFreshPreparedInput() throws Throwable {
+        final int[] prepared = new int[1];
+        Benchmark b = Benchmark.of(new Benchmark.PreparedOperation<int[]>() {
+            public int[] prepare() {
+                prepared[0]++;
+                return new int[] { 0 };
+            }
+
+            public Object run(int[] input) {
+                assertEquals("Input reused", 0, input[0]++);
+                return input;
+            }
+        });
+        b.setWarmupTime(0);
+        b.setRounds(3);
+        b.setMinRoundTime(0.005);
+        b.setMaxPreparedInputs(4);
+        Benchmark.Result result = b.run();
+        assertTrue(result.getBatchSize() > 4);
+        assertTrue(prepared[0] >= 3 * result.getBatchSize());
+    }
+
+    @Test
+    public void assertsFasterThanGivenTime() throws Throwable {
+        linear().assertFasterThan(0.01);
+        try {
+            quadratic().assertFasterThan(1e-6);
+            fail("Slow operation not noticed");
+        } catch (AssertionError e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Expected a call to take less than 1us"));
+        }
+    }
+
+    @Test
+    public void comparesAgainstNaiveImplementation() throws Throwable {
+        linear().assertFasterThan(quadratic(), 10);
+        try {
+            quadratic().assertFasterThan(linear(), 10);
+            fail("Slow operation not noticed");
+        } catch (AssertionError e) {
+        }
+    }
+
+    @Test
+    public void formatsTimes() {
+        assertEquals("1.5s", Benchmark.formatTime(1.5));
+        assertEquals("2ms", Benchmark.formatTime(0.002));
+        assertEquals("30ns", Benchmark.formatTime(3e-8));
+    }
+}
@@ -0,0 +1,106 @@
+package fi.helsinki.cs.tmc.edutestutils.timing;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class CalibrationTest {
+    private File cacheFile;
+
+    @Before
+    public void useTemporaryCacheFile() throws IOException {
+        cacheFile = File.createTempFile("CalibrationTest", ".properties");
+        cacheFile.delete();
+        Calibration.setCacheFile(cacheFile);
+        Calibration.reset();
+    }
+
+    @After
+    public void restoreCacheFile() {
+        System.clearProperty("edutestutils.speedFactor");
+        Calibration.setCacheFile(new File(System.getProperty("java.io.tmpdir"), "edutestutils-calibration.properties"));
+        Calibration.reset();
+        cacheFile.delete();
+    }
+
+    @Test
+    public void measuresAPositiveSpeedFactor() throws IOException {
+        double factor = Calibration.getSpeedFactor();
+        assertTrue(factor > 0);
+        assertEquals(factor, Calibration.getSpeedFactor(), 0.0);
+        assertEquals(Double.toString(factor), readCache().getProperty(Calibration.cacheKey()));
+    }
+
+    @Test
+    public void scalesReferenceSecondsBySpeedFactor() {
+        assertEquals(2.0 * Calibration.getSpeedFactor(), Calibration.referenceSeconds(2.0), 1e-9);
+    }
+
+    @Test
+    public void usesCachedSpeedFactor() throws IOException {
+        writeCache("2.5");
+        assertEquals(2.5, Calibration.getSpeedFactor(), 0.0);
+    }
+
+    @Test
+    public void remeasuresInvalidCachedSpeedFactor() throws IOException {
+        for (String invalid : new String[] { "0", "-1", "NaN", "Infinity", "garbage" }) {
+            writeCache(invalid);
+            Calibration.reset();
+            double factor = Calibration.getSpeedFactor();
+            assertTrue(invalid, factor > 0 && factor != Double.POSITIVE_INFINITY);
+            assertEquals(Double.toString(factor), readCache().getProperty(Calibration.cacheKey()));
+        }
+    }
+
+    @Test
+    public void mayBeOverriddenBySystemProperty() throws IOException {
+        writeCache("2.5");
+        System.setProperty("edutestutils.speedFactor", "3");
+        assertEquals(3.0, Calibration.getSpeedFactor(), 0.0);
+    }
+
+    @Test
+    public void ignoresInvalidOverride() throws IOException {
+        writeCache("2.5");
+        System.setProperty("edutestutils.speedFactor", "0");
+        assertEquals(2.5, Calibration.getSpeedFactor(), 0.0);
+    }
+
+    @Test
+    public void cacheKeyIsUsableAsPropertyName() {
+        String key = Calibration.cacheKey();
+        assertFalse(key.isEmpty());
+        assertTrue(key, key.matches("[A-Za-z0-9._|-]+"));
+    }
+
+    private void writeCache(String value) throws IOException {
+        Properties props = new Properties();
+        props.setProperty(Calibration.cacheKey(), value);
+        OutputStream out = new FileOutputStream(cacheFile);
+        try {
+            props.store(out, null);
+        } finally {
+            out.close();
+        }
+    }
+
+    private Properties readCache() throws IOException {
+        Properties props = new Properties();
+        InputStream in = new FileInputStream(cacheFile);
+        try {
+            props.load(in);
+        } finally {
+            in.close();
+        }
+        return props;
+    }
+}
@@ -0,0 +1,125 @@
+package fi.helsinki.cs.tmc.edutestutils.timing;
+
+import fi.helsinki.cs.tmc.edutestutils.Reflex;
+import fi.helsinki.cs.tmc.edutestutils.timing.ComplexityEstimator.Complexity;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ComplexityEstimatorTest {
+    public static class Subject {
+        static Runnable onCall;
+
+        public static int first(int[] a) {
+            if (onCall != null) {
+                onCall.run();
+            }
+            return a[0];
+        }
+
+        public static int linear(int[] a) {
+            int sum = 0;
+            for (int x : a) {
+                sum += x;
+            }
+            return sum;
+        }
+
+        public static int quadratic(int[] a) {
+            int sum = 0;
+            for (int x : a) {
+                for (int y : a) {
+                    sum += x ^ y;
+                }
+            }
+            return sum;
+        }
+    }
+
+    private static final ComplexityEstimator.InputGenerator<int[]> arrays = new ComplexityEstimator.InputGenerator<int[]>() {
+        public int[] generate(int n) {
+            int[] a = new int[n];
+            for (int i = 0; i < n; ++i) {
+                a[i] = i * 31;
+            }
+            return a;
+        }
+    };
+
+    @Test
+    public void fitsSyntheticMeasurements() {
+        int[] sizes = { 1000, 2000, 4000, 8000, 16000 };
+        double[] linear = new double[sizes.length];
+        double[] quadratic = new double[sizes.length];
+        double[] constant = new double[sizes.length];
+        for (int i = 0; i < sizes.length; ++i) {
+            linear[i] = 0.001 + sizes[i] * 1e-6;
+            quadratic[i] = sizes[i] * (double)sizes[i] * 1e-9;
+            constant[i] = 0.005;
+        }
+        assertEquals(Complexity.LINEAR, ComplexityEstimator.fit(sizes, linear).getBestFit());
+        assertEquals(Complexity.QUADRATIC, ComplexityEstimator.fit(sizes, quadratic).getBestFit());
+        assertEquals(Complexity.CONSTANT, ComplexityEstimator.fit(sizes, constant).getBestFit());
+    }
+
+    @Test
+    public void acceptsLinearMethod() throws Throwable {
+        ComplexityEstimator<int[]> est = estimator("linear");
+        est.setSizes(5000, 2, 160000);
+        est.assertAtMost(Complexity.LINEARITHMIC);
+    }
+
+    @Test
+    public void rejectsQuadraticMethod() throws Throwable {
+        ComplexityEstimator<int[]> est = estimator("quadratic");
+        est.setSizes(200, 2, 6400);
+        try {
+            est.assertAtMost(Complexity.LINEARITHMIC);
+            fail("Quadratic method accepted");
+        } catch (AssertionError e) {
+            assertTrue(e.getMessage().startsWith("Expected time complexity at most O(n log n)"));
+        }
+    }
+
+    @Test
+    public void keepsFewLargeInputsAndStaysWithinBudget() throws Throwable {
+        final int[] pending = new int[1];
+        final int[] maxPendingElements = new int[1];
+        ComplexityEstimator<int[]> est = ComplexityEstimator.of(
+                Reflex.reflect(Subject.class).staticMethod("first").returning(int.class).taking(int[].class),
+                new ComplexityEstimator.InputGenerator<int[]>() {
+                    public int[] generate(int n) {
+                        pending[0]++;
+                        maxPendingElements[0] = Math.max(maxPendingElements[0], pending[0] * n);
+                        return new int[n];
+                    }
+                });
+        Subject.onCall = new Runnable() {
+            public void run() {
+                pending[0] = 0;
+            }
+        };
+        est.setSizes(1 << 18, 2, 1 << 20);
+        est.setWarmupTime(0.05);
+        est.setCpuBudget(1.0);
+        CpuStopwatch sw = new CpuStopwatch(CpuStopwatch.Mode.BOTH);
+        try {
+            est.estimate();
+        } catch (AssertionError e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Could only measure"));
+        } finally {
+            Subject.onCall = null;
+        }
+        assertTrue(sw.getElapsedTime() < 3.0);
+        assertTrue(maxPendingElements[0] <= (1 << 22));
+    }
+
+    private ComplexityEstimator<int[]> estimator(String method) {
+        ComplexityEstimator<int[]> est = ComplexityEstimator.of(
+                Reflex.reflect(Subject.class).staticMethod(method).returning(int.class).taking(int[].class),
+                arrays);
+        est.setWarmupTime(0.2);
+        est.setRepetitions(3);
+        est.setCpuBudget(2.0);
+        return est;
+    }
+}
@@ -0,0 +1,62 @@
+package fi.helsinki.cs.tmc.edutestutils.timing;
+
+import java.lang.management.ManagementFactory;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class CpuStopwatchTest {
+    @Test
+    public void recordsLapsAndSplits() {
+        CpuStopwatch sw = new CpuStopwatch(CpuStopwatch.Mode.BOTH);
+        sw.recordLaps(3);
+        for (int i = 0; i < 5; ++i) {
+            spin(2);
+            sw.lap();
+        }
+        assertEquals(3, sw.getLapCount());
+        assertEquals(5, sw.getLapStatistics().getCount());
+        assertEquals(sw.getLap(0) + sw.getLap(1) + sw.getLap(2), sw.getSplit(2));
+        assertTrue(sw.getElapsedNanos() >= sw.getSplit(2));
+
+        long[] laps = new long[3];
+        assertEquals(3, sw.getLaps(laps));
+        assertEquals(sw.getLap(1), laps[1]);
+
+        sw.restart();
+        assertEquals(0, sw.getLapCount());
+        assertEquals(0, sw.getLapStatistics().getCount());
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void lapRequiresRecordLaps() {
+        new CpuStopwatch(CpuStopwatch.Mode.BOTH).lap();
+    }
+
+    @Test
+    public void lapsDoNotAllocate() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!MemoryLimit.isSupported()) {
+            return;
+        }
+        com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean)bean;
+        long id = Thread.currentThread().getId();
+
+        CpuStopwatch sw = new CpuStopwatch(CpuStopwatch.Mode.USER);
+        sw.recordLaps(100000);
+        for (int i = 0; i < 1000; ++i) {
+            sw.lap(); // Warm-up
+        }
+        long before = sunBean.getThreadAllocatedBytes(id);
+        for (int i = 0; i < 50000; ++i) {
+            sw.lap();
+        }
+        long allocated = sunBean.getThreadAllocatedBytes(id) - before;
+        assertTrue("Allocated " + allocated + " bytes", allocated < 10000);
+    }
+
+    private static void spin(long millis) {
+        long start = System.nanoTime();
+        while (System.nanoTime() - start < millis * 1000000) {
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package fi.helsinki.cs.tmc.edutestutils.timing;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+public class CpuTimeBudgetTest {
+    private CpuTimeBudget budget = new CpuTimeBudget(0.5);
+    private CpuTimeLimit timeLimit = budget.newTimeLimit(10.0);
+
+    @Test
+    public void recordsConsumptionPerTest() throws Throwable {
+        runTest("first", 100);
+        runTest("second", 100);
+
+        assertEquals(2, budget.getConsumption().size());
+        assertTrue(budget.getConsumption().get("first(" + getClass().getName() + ")") >= 0.05);
+        assertTrue(budget.getRemaining() < 0.45);
+        assertTrue(budget.getReport(), budget.getReport().contains(" first("));
+    }
+
+    @Test
+    public void limitsTestsToWhatRemains() throws Throwable {
+        long start = System.currentTimeMillis();
+        try {
+            runTest("slow", 5000);
+            fail("Budget not imposed");
+        } catch (TimeLimitException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("budget"));
+        }
+        assertTrue(System.currentTimeMillis() - start < 4000);
+        assertTrue(budget.isExhausted());
+    }
+
+    @Test
+    public void failsRemainingTestsFastOnceExhausted() throws Throwable {
+        try {
+            runTest("slow", 5000);
+        } catch (TimeLimitException e) {
+        }
+
+        final boolean[] ran = { false };
+        try {
+            timeLimit.apply(new Statement() {
+                @Override
+                public void evaluate() throws Throwable {
+                    ran[0] = true;
+                }
+            }, Description.createTestDescription(getClass(), "next")).evaluate();
+            fail("Exhausted budget not noticed");
+        } catch (TimeLimitException e) {
+        }
+        assertFalse(ran[0]);
+    }
+
+    @Test
+    public void isRefilledForEachTestClass() throws Throwable {
+        try {
+            runTest("slow", 5000);
+        } catch (TimeLimitException e) {
+        }
+
+        budget.apply(new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                runTest("quick", 10);
+            }
+        }, Description.createSuiteDescription(getClass())).evaluate();
+        assertEquals(1, budget.getConsumption().size());
+    }
+
+    private void runTest(String name, final long millis) throws Throwable {
+        timeLimit.apply(new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                CpuStopwatch stopwatch = new CpuStopwatch(CpuStopwatch.Mode.USER);
+                while (stopwatch.getElapsedTime() * 1000 < millis && !Thread.currentThread().isInterrupted()) {
+                }
+            }
+        }, Description.createTestDescription(getClass(), name)).evaluate();
+    }
+}
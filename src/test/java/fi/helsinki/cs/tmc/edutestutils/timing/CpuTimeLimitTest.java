@@ -1,5 +1,12 @@
 package fi.helsinki.cs.tmc.edutestutils.timing;
 
+import fi.helsinki.cs.tmc.edutestutils.ReflectionUtils;
+import fi.helsinki.cs.tmc.edutestutils.MockStdio;
+import fi.helsinki.cs.tmc.edutestutils.Reflex;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.lang.reflect.Method;
+import java.util.Scanner;
 import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -7,6 +14,26 @@ import org.junit.runner.Description;
 import org.junit.runners.model.Statement;
 
 public class CpuTimeLimitTest {
+    public static class Spinner {
+        public static void spin() {
+            while (true) {
+            }
+        }
+    }
+    
+    public static class Reference {
+        public static int sum(int[] array) {
+            int sum = 0;
+            for (int x : array) {
+                sum += x;
+            }
+            return sum;
+        }
+    }
+    
+    private static final Reflex.MethodRef1<Reference, Integer, int[]> REFERENCE_SUM =
+            Reflex.reflect(Reference.class).staticMethod("sum").returning(int.class).taking(int[].class);
+    
     public CpuTimeLimit timeLimit = new CpuTimeLimit();
     
     @Before
@@ -76,12 +103,399 @@ public class CpuTimeLimitTest {
         });
     }
     
-    private void runWithTimeLimit(final Runnable runnable) throws Throwable {
+    @Test
+    public void mayStopInstrumentedCodeThatIgnoresInterrupts() throws Throwable {
+        final Method spin = ReflectionUtils.newInstanceOfClass(Spinner.class.getName(), OperationLimit.transformers()).getMethod("spin");
+        final Thread[] testThread = new Thread[1];
+        timeLimit.setCancellingInstrumentedCode(true);
+        try {
+            runWithTimeLimit(new Runnable() {
+                @Override
+                public void run() {
+                    testThread[0] = Thread.currentThread();
+                    timeLimit.set(0.2);
+                    try {
+                        spin.invoke(null);
+                    } catch (Exception ex) {
+                        throw new RuntimeException(ex);
+                    }
+                }
+            });
+            fail("Time limit not imposed");
+        } catch (TimeLimitException e) {
+        }
+        testThread[0].join(5000);
+        assertFalse(testThread[0].isAlive());
+    }
+    
+    @Test
+    public void ignoresSpawnedThreadsByDefault() throws Throwable {
+        timeLimit = new CpuTimeLimit(0.5);
+        runWithTimeLimit(new Runnable() {
+            @Override
+            public void run() {
+                spawnAndJoin(2, 1000);
+            }
+        });
+    }
+    
+    @Test(expected=TimeLimitException.class)
+    public void mayCountCpuTimeOfSpawnedThreads() throws Throwable {
+        timeLimit = new CpuTimeLimit(0.5);
+        timeLimit.setTrackingSpawnedThreads(true);
+        runWithTimeLimit(new Runnable() {
+            @Override
+            public void run() {
+                spawnAndJoin(2, 3000);
+            }
+        });
+    }
+    
+    @Test
+    public void mayInterruptSpawnedThreadsOnTimeout() throws Throwable {
+        final Thread[] spawned = new Thread[1];
+        timeLimit = new CpuTimeLimit(0.3);
+        timeLimit.setTrackingSpawnedThreads(true);
+        timeLimit.setInterruptingSpawnedThreads(true);
+        try {
+            runWithTimeLimit(new Runnable() {
+                @Override
+                public void run() {
+                    spawned[0] = new Thread() {
+                        @Override
+                        public void run() {
+                            while (!isInterrupted()) {
+                            }
+                        }
+                    };
+                    spawned[0].start();
+                    while (!Thread.currentThread().isInterrupted()) {
+                    }
+                }
+            });
+            fail("Time limit not imposed");
+        } catch (TimeLimitException e) {
+        }
+        spawned[0].join(5000);
+        assertFalse(spawned[0].isAlive());
+    }
+    
+    @Test(expected=TimeLimitException.class)
+    public void mayImposeWallClockLimit() throws Throwable {
+        timeLimit.setWallClockLimit(0.3);
+        runWithTimeLimit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(5000);
+                } catch (InterruptedException ex) {
+                }
+            }
+        });
+    }
+    
+    @Test
+    public void mayDetectWaitingForMockedInputThatNeverComes() throws Throwable {
+        MockStdio io = new MockStdio();
+        PipedOutputStream pipe = new PipedOutputStream();
+        timeLimit.setDetectingStalls(true);
+        long start = System.currentTimeMillis();
+        io.enable();
+        try {
+            io.setSysIn(new PipedInputStream(pipe));
+            runWithTimeLimit(new Runnable() {
+                @Override
+                public void run() {
+                    new Scanner(System.in).nextLine();
+                }
+            });
+            fail("Stall not detected");
+        } catch (BlockedTestException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("The program has waited for input"));
+        } finally {
+            pipe.close();
+            io.disable();
+        }
+        assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+    
+    @Test
+    public void mayDetectDeadlocks() throws Throwable {
+        final Object a = new Object();
+        final Object b = new Object();
+        timeLimit.setDetectingStalls(true);
+        long start = System.currentTimeMillis();
+        try {
+            runWithTimeLimit(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (a) {
+                        Thread other = new Thread() {
+                            @Override
+                            public void run() {
+                                synchronized (b) {
+                                    synchronized (a) {
+                                    }
+                                }
+                            }
+                        };
+                        other.setDaemon(true);
+                        other.start();
+                        while (other.getState() != Thread.State.BLOCKED) {
+                            Thread.yield();
+                        }
+                        synchronized (b) {
+                        }
+                    }
+                }
+            });
+            fail("Deadlock not detected");
+        } catch (BlockedTestException e) {
+            assertTrue(e.getMessage().startsWith("Deadlock detected"));
+        }
+        assertTrue(System.currentTimeMillis() - start < 3000);
+    }
+    
+    @Test
+    public void mayReportWhereTimeWasSpentOnTimeout() throws Throwable {
+        timeLimit.setProfiling(true);
+        try {
+            runWithTimeLimit(new Runnable() {
+                @Override
+                public void run() {
+                    timeLimit.set(0.3);
+                    spinUntilInterrupted();
+                }
+            });
+            fail("Time limit not imposed");
+        } catch (TimeLimitException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Most time was spent at:"));
+            assertTrue(e.getMessage(), e.getMessage().contains("CpuTimeLimitTest.spinUntilInterrupted"));
+        }
+    }
+    
+    @Test
+    public void mayScaleLimitsBySpeedOfMachine() throws Throwable {
+        timeLimit.setUsingReferenceSeconds(true);
+        try {
+            runWithTimeLimit(new Runnable() {
+                @Override
+                public void run() {
+                    timeLimit.set(0.3 / Calibration.getSpeedFactor());
+                    spinUntilInterrupted();
+                }
+            });
+            fail("Time limit not imposed");
+        } catch (TimeLimitException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("reference, 0.3s on this machine"));
+        }
+    }
+    
+    @Test
+    public void mayLimitToMultipleOfReferenceTime() throws Throwable {
+        final int[] input = new int[100000];
+        try {
+            runWithTimeLimit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        timeLimit.setRelativeTo(REFERENCE_SUM, input, 5);
+                    } catch (Throwable t) {
+                        throw new RuntimeException(t);
+                    }
+                    spinUntilInterrupted();
+                }
+            });
+            fail("Time limit not imposed");
+        } catch (TimeLimitException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("5x the reference time"));
+        }
+    }
+    
+    @Test
+    public void passesCodeAsFastAsReference() throws Throwable {
+        final int[] input = new int[100000];
+        runWithTimeLimit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    timeLimit.setRelativeTo(REFERENCE_SUM, input, 5);
+                } catch (Throwable t) {
+                    throw new RuntimeException(t);
+                }
+                Reference.sum(input);
+            }
+        });
+    }
+    
+    @Test
+    public void limitsWallClockTimeOnVirtualThreads() throws Throwable {
+        timeLimit.setExecutionMode(CpuTimeLimit.ExecutionMode.VIRTUAL);
+        try {
+            runWithTimeLimit(new Runnable() {
+                @Override
+                public void run() {
+                    timeLimit.set(0.3);
+                    try {
+                        Thread.sleep(1000);
+                    } catch (InterruptedException ex) {
+                    }
+                }
+            });
+            assertFalse("Sleeping should exceed the limit on a virtual thread", VirtualThreads.isSupported());
+        } catch (TimeLimitException e) {
+            assertTrue(VirtualThreads.isSupported());
+            assertTrue(e.getMessage(), e.getMessage().contains("virtual thread"));
+        }
+    }
+    
+    @Test(expected=TimeLimitException.class)
+    public void autoModeUsesCpuTimeWhenThereIsADefaultLimit() throws Throwable {
+        timeLimit = new CpuTimeLimit(0.3);
+        timeLimit.setExecutionMode(CpuTimeLimit.ExecutionMode.AUTO);
+        runWithTimeLimit(new Runnable() {
+            @Override
+            public void run() {
+                spinUntilInterrupted();
+            }
+        });
+    }
+    
+    @CpuTimeLimit.PlatformThread
+    @Test
+    public void autoModeRunsAnnotatedTestsOnAPlatformThread() throws Throwable {
+        timeLimit.setExecutionMode(CpuTimeLimit.ExecutionMode.AUTO);
+        final boolean[] virtual = new boolean[1];
+        final int[] runs = new int[1];
+        Description d = Description.createTestDescription(getClass(), "autoModeRunsAnnotatedTestsOnAPlatformThread",
+                getClass().getMethod("autoModeRunsAnnotatedTestsOnAPlatformThread").getAnnotations());
+        runWithTimeLimit(new Runnable() {
+            @Override
+            public void run() {
+                runs[0]++;
+                virtual[0] = VirtualThreads.isVirtual(Thread.currentThread());
+                timeLimit.set(0.3);
+                try {
+                    Thread.sleep(500); // Uses no CPU time
+                } catch (InterruptedException ex) {
+                }
+            }
+        }, d);
+        assertFalse(virtual[0]);
+        assertEquals(1, runs[0]);
+    }
+    
+    @Test
+    public void autoModeDoesNotLetUnannotatedVirtualTestsSetALimit() throws Throwable {
+        timeLimit.setExecutionMode(CpuTimeLimit.ExecutionMode.AUTO);
+        try {
+            runWithTimeLimit(new Runnable() {
+                @Override
+                public void run() {
+                    timeLimit.set(0.3);
+                }
+            });
+            assertFalse(VirtualThreads.isSupported());
+        } catch (IllegalStateException e) {
+            assertTrue(VirtualThreads.isSupported());
+            assertTrue(e.getMessage(), e.getMessage().contains("@CpuTimeLimit.PlatformThread"));
+        }
+    }
+    
+    @Test
+    public void doesNotChargeVirtualThreadsWallClockTimeToTheBudget() throws Throwable {
+        CpuTimeBudget budget = new CpuTimeBudget(0.2);
+        timeLimit.setBudget(budget);
+        timeLimit.setExecutionMode(CpuTimeLimit.ExecutionMode.VIRTUAL);
+        runWithTimeLimit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(500);
+                } catch (InterruptedException ex) {
+                }
+            }
+        });
+        assertFalse(budget.isExhausted());
+    }
+    
+    @Test
+    public void mayRunTestsOnABiggerStack() throws Throwable {
+        timeLimit.setStackSize(256 * StackRunner.MB);
+        runWithTimeLimit(new Runnable() {
+            @Override
+            public void run() {
+                assertEquals(500000, StackRunnerTest.depth(500000));
+            }
+        });
+    }
+    
+    @Test
+    public void doesNotReuseThreadsThatTimedOut() throws Throwable {
+        final long size = 5 * StackRunner.MB;
+        final Thread[] threads = new Thread[2];
+        timeLimit.setStackSize(size);
+        try {
+            runWithTimeLimit(new Runnable() {
+                @Override
+                public void run() {
+                    threads[0] = Thread.currentThread();
+                    timeLimit.set(0.2);
+                    spinUntilInterrupted();
+                }
+            });
+            fail("Time limit not imposed");
+        } catch (TimeLimitException e) {
+        }
+        threads[0].join(5000);
+        assertFalse(threads[0].isAlive());
+        
+        runWithTimeLimit(new Runnable() {
+            @Override
+            public void run() {
+                threads[1] = Thread.currentThread();
+            }
+        });
+        assertNotSame(threads[0], threads[1]);
+    }
+    
+    private static void spinUntilInterrupted() {
+        while (!Thread.currentThread().isInterrupted()) {
+        }
+    }
+    
+    private static void spawnAndJoin(int count, final long millis) {
+        Thread[] threads = new Thread[count];
+        for (int i = 0; i < count; ++i) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    long start = System.currentTimeMillis();
+                    while (System.currentTimeMillis() < start + millis && !isInterrupted()) {
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            try {
+                t.join();
+            } catch (InterruptedException ex) {
+                return;
+            }
+        }
+    }
+    
+    private void runWithTimeLimit(Runnable runnable) throws Throwable {
+        runWithTimeLimit(runnable, Description.EMPTY);
+    }
+    
+    private void runWithTimeLimit(final Runnable runnable, Description d) throws Throwable {
         timeLimit.apply(new Statement() {
             @Override
             public void evaluate() throws Throwable {
                 runnable.run();
             }
-        }, Description.EMPTY).evaluate();
+        }, d).evaluate();
     }
 }
@@ -0,0 +1,139 @@
+package fi.helsinki.cs.tmc.edutestutils.timing;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+public class MemoryLimitTest {
+    public MemoryLimit memLimit = new MemoryLimit();
+    
+    @Before
+    public void checkThatMemoryLimitIsSupported() {
+        assertTrue(MemoryLimit.isSupported());
+    }
+    
+    @Test(expected=MemoryLimitException.class)
+    public void imposesLimitGivenInTestMethod() throws Throwable {
+        runWithMemoryLimit(new Runnable() {
+            @Override
+            public void run() {
+                memLimit.set(10 * MemoryLimit.MB);
+                allocateForever();
+            }
+        });
+    }
+    
+    @Test(expected=MemoryLimitException.class)
+    public void mayBeGivenADefaultLimit() throws Throwable {
+        memLimit = new MemoryLimit(10 * MemoryLimit.MB);
+        runWithMemoryLimit(new Runnable() {
+            @Override
+            public void run() {
+                allocateForever();
+            }
+        });
+    }
+    
+    @Test(expected=MemoryLimitException.class)
+    public void countsAllocationsRatherThanLiveObjects() throws Throwable {
+        memLimit = new MemoryLimit(10 * MemoryLimit.MB);
+        runWithMemoryLimit(new Runnable() {
+            @Override
+            public void run() {
+                // Up to 1GB, but never more than 64KB alive at a time
+                for (int i = 0; i < 16 * 1024 && !Thread.currentThread().isInterrupted(); ++i) {
+                    byte[] garbage = new byte[64 * 1024];
+                    garbage[i % garbage.length] = 1;
+                }
+            }
+        });
+    }
+    
+    @Test
+    public void allowsAllocationsWithinLimit() throws Throwable {
+        memLimit = new MemoryLimit(10 * MemoryLimit.MB);
+        runWithMemoryLimit(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 100; ++i) {
+                    byte[] garbage = new byte[1024];
+                    garbage[0] = 1;
+                }
+            }
+        });
+    }
+    
+    @Test(expected=MemoryLimitException.class)
+    public void failsTestThatFinishesBetweenChecks() throws Throwable {
+        memLimit = new MemoryLimit(MemoryLimit.MB);
+        runWithMemoryLimit(new Runnable() {
+            @Override
+            public void run() {
+                byte[] garbage = new byte[2 * (int)MemoryLimit.MB];
+                garbage[0] = 1;
+            }
+        });
+    }
+    
+    @Test(expected=MemoryLimitException.class)
+    public void watchesTheTestThreadOfAnInnerCpuTimeLimit() throws Throwable {
+        memLimit = new MemoryLimit(10 * MemoryLimit.MB);
+        CpuTimeLimit timeLimit = new CpuTimeLimit(60);
+        memLimit.apply(timeLimit.apply(statement(new Runnable() {
+            @Override
+            public void run() {
+                allocateForever();
+            }
+        }), Description.EMPTY), Description.EMPTY).evaluate();
+    }
+    
+    @Test(expected=TimeLimitException.class)
+    public void letsAnOuterCpuTimeLimitWatchTheSameThread() throws Throwable {
+        memLimit = new MemoryLimit(1024 * MemoryLimit.MB);
+        CpuTimeLimit timeLimit = new CpuTimeLimit(0.3);
+        timeLimit.apply(memLimit.apply(statement(new Runnable() {
+            @Override
+            public void run() {
+                while (!Thread.currentThread().isInterrupted()) {
+                }
+            }
+        }), Description.EMPTY), Description.EMPTY).evaluate();
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void passesThroughExceptionsInTests() throws Throwable {
+        runWithMemoryLimit(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalArgumentException();
+            }
+        });
+    }
+    
+    private static void allocateForever() {
+        List<byte[]> hog = new ArrayList<byte[]>();
+        while (!Thread.currentThread().isInterrupted()) {
+            hog.add(new byte[64 * 1024]);
+            if (hog.size() > 1000) {
+                hog.clear();
+            }
+        }
+    }
+    
+    private void runWithMemoryLimit(Runnable runnable) throws Throwable {
+        memLimit.apply(statement(runnable), Description.EMPTY).evaluate();
+    }
+    
+    private static Statement statement(final Runnable runnable) {
+        return new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                runnable.run();
+            }
+        };
+    }
+}
@@ -0,0 +1,151 @@
+package fi.helsinki.cs.tmc.edutestutils.timing;
+
+import fi.helsinki.cs.tmc.edutestutils.ReflectionUtils;
+import fi.helsinki.cs.tmc.edutestutils.classloaders.BranchInstrumentingTransformer;
+import fi.helsinki.cs.tmc.edutestutils.classloaders.InstrumentationHooks;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import org.junit.Assert;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+public class OperationLimitTest {
+    public static class Subject {
+        public static long sum(int n) {
+            long sum = 0;
+            for (int i = 0; i < n; ++i) {
+                sum += i;
+            }
+            return sum;
+        }
+
+        public static long swallow(int n) {
+            try {
+                return sum(n);
+            } catch (RuntimeException e) {
+                return -1;
+            }
+        }
+    }
+
+    public OperationLimit opLimit = new OperationLimit();
+
+    @Test
+    public void countsLoopIterationsDeterministically() throws Throwable {
+        final Method sum = instrumentedMethod("sum");
+        final long[] counts = new long[2];
+        runWithOpLimit(new Runnable() {
+            public void run() {
+                invoke(sum, 1000);
+                counts[0] = opLimit.getOperationCount();
+                invoke(sum, 2000);
+                counts[1] = opLimit.getOperationCount() - counts[0];
+            }
+        });
+        assertTrue(counts[0] >= 1000);
+        assertTrue(counts[0] < 1100);
+        assertTrue(counts[1] >= 2000);
+        assertTrue(counts[1] < 2100);
+    }
+
+    @Test(expected=OperationLimitException.class)
+    public void imposesLimitGivenInTestMethod() throws Throwable {
+        final Method sum = instrumentedMethod("sum");
+        runWithOpLimit(new Runnable() {
+            public void run() {
+                opLimit.set(500);
+                invoke(sum, 1000);
+            }
+        });
+    }
+
+    @Test(expected=OperationLimitException.class)
+    public void mayBeGivenADefaultLimit() throws Throwable {
+        opLimit = new OperationLimit(500);
+        final Method sum = instrumentedMethod("sum");
+        runWithOpLimit(new Runnable() {
+            public void run() {
+                invoke(sum, 1000);
+            }
+        });
+    }
+
+    @Test(expected=OperationLimitException.class)
+    public void failsEvenIfStudentCodeSwallowsTheException() throws Throwable {
+        final Method swallow = instrumentedMethod("swallow");
+        runWithOpLimit(new Runnable() {
+            public void run() {
+                opLimit.set(500);
+                invoke(swallow, 1000);
+            }
+        });
+    }
+
+    @Test
+    public void doesNotCountUninstrumentedCode() throws Throwable {
+        opLimit = new OperationLimit(10);
+        runWithOpLimit(new Runnable() {
+            public void run() {
+                Subject.sum(1000);
+            }
+        });
+    }
+
+    @Test
+    public void doesNotInstrumentLibraryClasses() throws Exception {
+        BranchInstrumentingTransformer transformer = new BranchInstrumentingTransformer();
+        for (Class<?> cls : new Class<?>[] { Assert.class, CpuTimeLimit.class, InstrumentationHooks.class }) {
+            byte[] classFile = classFileOf(cls);
+            assertSame(classFile, transformer.transform(cls.getName(), classFile));
+        }
+        byte[] classFile = classFileOf(Subject.class);
+        assertNotSame(classFile, transformer.transform(Subject.class.getName(), classFile));
+    }
+
+    private static byte[] classFileOf(Class<?> cls) throws IOException {
+        InputStream in = cls.getResourceAsStream("/" + cls.getName().replace('.', '/') + ".class");
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private Method instrumentedMethod(String name) throws Exception {
+        Class<?> cls = ReflectionUtils.newInstanceOfClass(Subject.class.getName(), OperationLimit.transformers());
+        return cls.getMethod(name, int.class);
+    }
+
+    private static void invoke(Method method, int n) {
+        try {
+            method.invoke(null, n);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void runWithOpLimit(final Runnable runnable) throws Throwable {
+        opLimit.apply(new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                runnable.run();
+            }
+        }, Description.EMPTY).evaluate();
+    }
+}
@@ -0,0 +1,95 @@
+package fi.helsinki.cs.tmc.edutestutils.timing;
+
+import fi.helsinki.cs.tmc.edutestutils.Reflex;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ReferenceTimesTest {
+    public static class Reference {
+        static int calls = 0;
+
+        public static int length(Object input) {
+            calls++;
+            return input.toString().length();
+        }
+    }
+
+    private final Reflex.MethodRef1<Reference, Integer, Object> reference =
+            Reflex.reflect(Reference.class).staticMethod("length").returning(int.class).taking(Object.class);
+
+    @Before
+    @After
+    public void clearCache() {
+        ReferenceTimes.clearCache();
+    }
+
+    @Test
+    public void cachesByInputContents() throws Throwable {
+        ReferenceTimes.timeOf(reference, new int[] { 1, 2, 3 }, CpuStopwatch.Mode.BOTH);
+        int calls = Reference.calls;
+        ReferenceTimes.timeOf(reference, new int[] { 1, 2, 3 }, CpuStopwatch.Mode.BOTH);
+        assertEquals(calls, Reference.calls);
+    }
+
+    @Test
+    public void doesNotMixUpInputsWithEqualHashCodes() throws Throwable {
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        ReferenceTimes.timeOf(reference, "Aa", CpuStopwatch.Mode.BOTH);
+        int calls = Reference.calls;
+        ReferenceTimes.timeOf(reference, "BB", CpuStopwatch.Mode.BOTH);
+        assertTrue(Reference.calls > calls);
+    }
+
+    @Test
+    public void keepsOnlyRecentResults() throws Throwable {
+        ReferenceTimes.remember(reference, "first", CpuStopwatch.Mode.BOTH, 1.0);
+        for (int i = 0; i < 2 * ReferenceTimes.MAX_CACHED; ++i) {
+            ReferenceTimes.remember(reference, i, CpuStopwatch.Mode.BOTH, 1.0);
+        }
+        assertEquals(ReferenceTimes.MAX_CACHED, ReferenceTimes.cacheSize());
+
+        int calls = Reference.calls;
+        ReferenceTimes.timeOf(reference, "first", CpuStopwatch.Mode.BOTH);
+        assertTrue("Oldest result not dropped", Reference.calls > calls);
+    }
+
+    @Test
+    public void doesNotMatchAnInputChangedAfterItWasMeasured() throws Throwable {
+        int[] input = { 3, 2, 1 };
+        ReferenceTimes.remember(reference, input, CpuStopwatch.Mode.BOTH, 1.0);
+        Arrays.sort(input);
+        int calls = Reference.calls;
+        ReferenceTimes.timeOf(reference, input, CpuStopwatch.Mode.BOTH);
+        assertTrue(Reference.calls > calls);
+
+        // The new contents are found, as are the old ones in another array.
+        calls = Reference.calls;
+        ReferenceTimes.timeOf(reference, new int[] { 1, 2, 3 }, CpuStopwatch.Mode.BOTH);
+        assertEquals(1.0, ReferenceTimes.timeOf(reference, new int[] { 3, 2, 1 }, CpuStopwatch.Mode.BOTH), 0);
+        assertEquals(calls, Reference.calls);
+    }
+
+    @Test
+    public void fingerprintsNestedContents() {
+        assertArrayEquals(ReferenceTimes.fingerprint(new Object[] { new int[] { 1 }, Arrays.asList("a", 2L) }),
+                ReferenceTimes.fingerprint(new Object[] { new int[] { 1 }, Arrays.asList("a", 2L) }));
+        assertFalse(Arrays.equals(ReferenceTimes.fingerprint(new int[] { 1 }), ReferenceTimes.fingerprint(new long[] { 1 })));
+        assertFalse(Arrays.equals(ReferenceTimes.fingerprint(new String[] { "ab", "c" }),
+                ReferenceTimes.fingerprint(new String[] { "a", "bc" })));
+        assertNull(ReferenceTimes.fingerprint(new Object()));
+        assertNull(ReferenceTimes.fingerprint(new Object[] { 1, new Object() }));
+    }
+
+    @Test
+    public void measuresInputsThatCantBeFingerprintedEveryTime() throws Throwable {
+        Object input = new Object();
+        ReferenceTimes.timeOf(reference, input, CpuStopwatch.Mode.BOTH);
+        int calls = Reference.calls;
+        ReferenceTimes.timeOf(reference, input, CpuStopwatch.Mode.BOTH);
+        assertTrue(Reference.calls > calls);
+        assertEquals(0, ReferenceTimes.cacheSize());
+    }
+}
@@ -0,0 +1,122 @@
+package fi.helsinki.cs.tmc.edutestutils.timing;
+
+import java.util.concurrent.Callable;
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+import static org.junit.Assert.*;
+
+public class StackRunnerTest {
+    static int depth(int n) {
+        return (n == 0) ? 0 : 1 + depth(n - 1);
+    }
+
+    private static Callable<Integer> recurse(final int n) {
+        return new Callable<Integer>() {
+            public Integer call() {
+                return depth(n);
+            }
+        };
+    }
+
+    @Test
+    public void runsDeepRecursionOnABigStack() throws Exception {
+        assertEquals(Integer.valueOf(500000), StackRunner.call(256 * StackRunner.MB, recurse(500000)));
+    }
+
+    @Test(expected=StackOverflowError.class)
+    public void propagatesStackOverflow() throws Exception {
+        StackRunner.call(256 * StackRunner.KB, recurse(10000000));
+    }
+
+    @Test
+    public void propagatesExceptions() throws Exception {
+        try {
+            StackRunner.run(StackRunner.MB, new Runnable() {
+                public void run() {
+                    throw new IllegalArgumentException("oops");
+                }
+            });
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("oops", e.getMessage());
+        }
+    }
+
+    @Test(expected=InterruptedException.class)
+    public void propagatesInterruptedException() throws Exception {
+        StackRunner.call(StackRunner.MB, new Callable<Void>() {
+            public Void call() throws InterruptedException {
+                throw new InterruptedException();
+            }
+        });
+    }
+    
+    @Test
+    public void reusesThreads() throws Exception {
+        final long size = 3 * StackRunner.MB;
+        Callable<Thread> currentThread = new Callable<Thread>() {
+            public Thread call() {
+                return Thread.currentThread();
+            }
+        };
+        Thread first = StackRunner.call(size, currentThread);
+        while (TestThreadPool.getIdleCount(size) == 0) {
+            Thread.sleep(1);
+        }
+        assertSame(first, StackRunner.call(size, currentThread));
+    }
+
+    @Test
+    public void countsTowardAndIsStoppedByCpuTimeLimit() throws Throwable {
+        final Thread[] worker = new Thread[1];
+        CpuTimeLimit timeLimit = new CpuTimeLimit(0.3);
+        try {
+            timeLimit.apply(new Statement() {
+                @Override
+                public void evaluate() {
+                    StackRunner.run(StackRunner.MB, spinUntilInterrupted(worker));
+                }
+            }, Description.EMPTY).evaluate();
+            fail();
+        } catch (TimeLimitException e) {
+        }
+        worker[0].join(5000);
+        assertFalse(worker[0].isAlive());
+    }
+
+    @Test
+    public void stopsTheRunnableWhenInterrupted() throws Exception {
+        final Thread[] worker = new Thread[1];
+        final Thread caller = Thread.currentThread();
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException ex) {
+                }
+                caller.interrupt();
+            }
+        }.start();
+        try {
+            StackRunner.run(StackRunner.MB, spinUntilInterrupted(worker));
+            fail();
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof InterruptedException);
+            assertTrue(Thread.interrupted());
+        }
+        worker[0].join(5000);
+        assertFalse(worker[0].isAlive());
+    }
+
+    private static Runnable spinUntilInterrupted(final Thread[] worker) {
+        return new Runnable() {
+            public void run() {
+                worker[0] = Thread.currentThread();
+                while (!Thread.currentThread().isInterrupted()) {
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,53 @@
+package fi.helsinki.cs.tmc.edutestutils.timing;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TimeStatisticsTest {
+    @Test
+    public void computesExactMomentsAndExtremes() {
+        TimeStatistics stats = new TimeStatistics();
+        for (long v : new long[] { 2, 4, 4, 4, 5, 5, 7, 9 }) {
+            stats.record(v);
+        }
+        assertEquals(8, stats.getCount());
+        assertEquals(2, stats.getMin());
+        assertEquals(9, stats.getMax());
+        assertEquals(5.0, stats.getMean(), 1e-9);
+        assertEquals(32.0 / 7, stats.getVariance(), 1e-9);
+    }
+
+    @Test
+    public void percentilesAreWithinBucketPrecision() {
+        TimeStatistics stats = new TimeStatistics();
+        for (long v = 1; v <= 100000; ++v) {
+            stats.record(v * 1000);
+        }
+        assertEquals(50000000.0, stats.getPercentile(50), 50000000.0 * 0.04);
+        assertEquals(99000000.0, stats.getPercentile(99), 99000000.0 * 0.04);
+        assertEquals(100000000L, stats.getPercentile(100));
+        assertEquals(1000L, stats.getPercentile(0));
+    }
+
+    @Test
+    public void bucketsCoverAllValuesInOrder() {
+        long previousHigh = -1;
+        for (int b = 0; b < 2000 && TimeStatistics.highestValueInBucket(b) > previousHigh; ++b) {
+            long high = TimeStatistics.highestValueInBucket(b);
+            assertEquals(b, TimeStatistics.bucketOf(high));
+            assertEquals(b, TimeStatistics.bucketOf(previousHigh + 1));
+            previousHigh = high;
+        }
+        assertEquals(TimeStatistics.bucketOf(Long.MAX_VALUE), TimeStatistics.bucketOf(previousHigh));
+    }
+
+    @Test
+    public void resetForgetsEverything() {
+        TimeStatistics stats = new TimeStatistics();
+        stats.record(123);
+        stats.reset();
+        assertEquals(0, stats.getCount());
+        assertEquals(0, stats.getMax());
+        assertEquals(0, stats.getPercentile(50));
+    }
+}
@@ -0,0 +1,98 @@
+package fi.helsinki.cs.tmc.edutestutils.utils;
+
+import fi.helsinki.cs.tmc.edutestutils.timing.Benchmark;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import org.junit.Ignore;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class BufferingOutputStreamTest {
+
+    private static class CountingOutputStream extends ByteArrayOutputStream {
+        int writes = 0;
+        int flushes = 0;
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            writes++;
+            super.write(b, off, len);
+        }
+
+        @Override
+        public void flush() {
+            flushes++;
+        }
+    }
+
+    @Test
+    public void batchesAutoflushedLines() throws Exception {
+        CountingOutputStream sink = new CountingOutputStream();
+        BufferingOutputStream buffer = new BufferingOutputStream(sink);
+        PrintStream out = new PrintStream(buffer, true);
+
+        buffer.setBuffering(true);
+        for (int i = 0; i < 1000; ++i) {
+            out.println(i);
+        }
+        assertTrue("" + sink.writes, sink.writes < 5);
+        assertEquals(0, sink.flushes);
+
+        buffer.setBuffering(false);
+        assertEquals(3890, sink.size());
+        assertTrue(sink.toString().endsWith("998\n999\n"));
+        int writes = sink.writes;
+        out.println("x");
+        assertTrue(sink.writes > writes);
+        assertTrue(sink.flushes > 1);
+    }
+
+    @Test
+    public void writesLargeChunksDirectly() throws Exception {
+        CountingOutputStream sink = new CountingOutputStream();
+        BufferingOutputStream buffer = new BufferingOutputStream(sink);
+        buffer.setBuffering(true);
+        buffer.write('a');
+        buffer.write(new byte[100000]);
+        assertEquals(100001, sink.size());
+        assertEquals(2, sink.writes);
+    }
+
+    private static Benchmark printing(final OutputStream target) {
+        final PrintStream out = new PrintStream(target, true);
+        Benchmark b = Benchmark.of(new Benchmark.Operation() {
+            public Object run() {
+                for (int i = 0; i < 100; ++i) {
+                    out.println(i);
+                }
+                return null;
+            }
+        });
+        b.setWarmupTime(0.1);
+        b.setRounds(5);
+        return b;
+    }
+
+    // Timing depends on the machine, so this only reports the numbers.
+    // batchesAutoflushedLines checks that buffering actually happens.
+    @Ignore("Benchmark, run by hand")
+    @Test
+    public void benchmarkPrintingToFile() throws Throwable {
+        // Every write to a file is a system call, like with a spilled capture.
+        File file = File.createTempFile("BufferingOutputStreamTest", ".out");
+        FileOutputStream sink = new FileOutputStream(file);
+        try {
+            BufferingOutputStream unbuffered = new BufferingOutputStream(sink);
+            BufferingOutputStream buffered = new BufferingOutputStream(sink);
+            buffered.setBuffering(true);
+            System.out.println("Unbuffered: " + printing(unbuffered).run());
+            System.out.println("Buffered:   " + printing(buffered).run());
+        } finally {
+            sink.close();
+            file.delete();
+        }
+    }
+}
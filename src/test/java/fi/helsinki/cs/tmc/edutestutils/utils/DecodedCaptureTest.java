@@ -0,0 +1,78 @@
+package fi.helsinki.cs.tmc.edutestutils.utils;
+
+import java.nio.charset.Charset;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class DecodedCaptureTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final MemoryCaptureOutputStream capture = new MemoryCaptureOutputStream();
+
+    private void print(String s, Charset charset) {
+        byte[] bytes = s.getBytes(charset);
+        capture.write(bytes, 0, bytes.length);
+    }
+
+    @Test
+    public void decodesOnlyNewOutput() {
+        DecodedCapture decoded = new DecodedCapture(capture, UTF8);
+        assertEquals("", decoded.getString());
+        print("hello\r", UTF8);
+        CharSequence first = decoded.getText();
+        assertEquals("hello\r", first.toString());
+        print("\nwörld\r\n", UTF8);
+        assertEquals("hello\nwörld\n", decoded.getString());
+        assertSame(decoded.getString(), decoded.getString());
+
+        // Earlier texts don't change.
+        assertEquals("hello\r", first.toString());
+        assertEquals(6, first.length());
+        assertEquals('o', first.charAt(4));
+        assertEquals("ell", first.subSequence(1, 4).toString());
+    }
+
+    @Test
+    public void waitsForTheRestOfAMultiByteCharacter() {
+        DecodedCapture decoded = new DecodedCapture(capture, UTF8);
+        byte[] bytes = "aä".getBytes(UTF8);
+        capture.write(bytes, 0, 2);
+        assertEquals("a", decoded.getString());
+        capture.write(bytes, 2, 1);
+        assertEquals("aä", decoded.getString());
+    }
+
+    @Test
+    public void decodesLatin1Directly() {
+        Charset latin1 = Charset.forName("ISO-8859-1");
+        DecodedCapture decoded = new DecodedCapture(capture, latin1);
+        print("Hääyö\r\n", latin1);
+        assertEquals("Hääyö\n", decoded.getString());
+    }
+
+    @Test
+    public void startsOverAfterReset() {
+        DecodedCapture decoded = new DecodedCapture(capture, UTF8);
+        print("first", UTF8);
+        CharSequence text = decoded.getText();
+        capture.reset();
+        decoded.reset();
+        print("2nd", UTF8);
+        assertEquals("2nd", decoded.getString());
+        assertEquals("first", text.toString());
+    }
+
+    @Test
+    public void detachesItsArrayOnlyIfNoTextRefersToIt() {
+        char[] chars = new char[16];
+        DecodedCapture decoded = new DecodedCapture(capture, UTF8, chars);
+        print("first", UTF8);
+        assertEquals("first", decoded.getString());
+        assertSame(chars, decoded.detach());
+
+        print(" second", UTF8);
+        CharSequence text = decoded.getText();
+        assertNull(decoded.detach());
+        assertEquals("first second", text.toString());
+    }
+}
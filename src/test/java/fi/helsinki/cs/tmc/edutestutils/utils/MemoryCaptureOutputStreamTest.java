@@ -0,0 +1,18 @@
+package fi.helsinki.cs.tmc.edutestutils.utils;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MemoryCaptureOutputStreamTest {
+    @Test
+    public void writesToANewArrayAfterDetaching() {
+        byte[] bytes = new byte[16];
+        MemoryCaptureOutputStream out = new MemoryCaptureOutputStream(bytes);
+        out.write('a');
+        assertSame(bytes, out.detach());
+        assertEquals(0, out.size());
+        out.write('b');
+        assertEquals('a', bytes[0]);
+        assertEquals('b', out.getBuffer(0).get());
+    }
+}
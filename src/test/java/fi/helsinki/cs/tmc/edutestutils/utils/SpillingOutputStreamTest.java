@@ -0,0 +1,112 @@
+package fi.helsinki.cs.tmc.edutestutils.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SpillingOutputStreamTest {
+
+    private static String contents(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.remaining()];
+        buf.get(bytes);
+        return new String(bytes);
+    }
+
+    @Test
+    public void staysInMemoryBelowThreshold() throws Exception {
+        SpillingOutputStream out = new SpillingOutputStream(10);
+        out.write("0123456789".getBytes());
+        assertFalse(out.isSpilled());
+        assertEquals("0123456789", contents(out.getBuffer()));
+        out.close();
+    }
+
+    @Test
+    public void spillsPastThresholdKeepingEverything() throws Exception {
+        SpillingOutputStream out = new SpillingOutputStream(10);
+        out.write("0123456".getBytes());
+        out.write("789a".getBytes());
+        out.write('b');
+        assertTrue(out.isSpilled());
+        assertEquals(12, out.size());
+        assertEquals("0123456789ab", contents(out.getBuffer()));
+
+        out.write("cd".getBytes());
+        assertEquals("0123456789abcd", contents(out.getBuffer()));
+        out.close();
+    }
+
+    @Test
+    public void givesTheBytesFromAnOffsetOn() throws Exception {
+        SpillingOutputStream out = new SpillingOutputStream(4);
+        out.write("ab".getBytes());
+        assertEquals("b", contents(out.getBuffer(1)));
+        out.write("cdefg".getBytes());
+        assertTrue(out.isSpilled());
+        assertEquals("efg", contents(out.getBuffer(4)));
+        assertEquals("", contents(out.getBuffer(7)));
+        assertEquals("", contents(out.getBuffer(100)));
+        out.close();
+    }
+
+    @Test
+    public void decodesSpilledOutputIncrementally() throws Exception {
+        SpillingOutputStream out = new SpillingOutputStream(4);
+        DecodedCapture text = new DecodedCapture(out, Charset.forName("UTF-8"));
+        out.write("häl".getBytes("UTF-8"));
+        assertEquals("häl", text.getString());
+        byte[] rest = "lö\r\n".getBytes("UTF-8");
+        out.write(rest, 0, 2);
+        assertEquals("häll", text.getString());
+        out.write(rest, 2, rest.length - 2);
+        assertEquals("hällö\n", text.getString());
+        out.close();
+    }
+
+    @Test
+    public void resetStartsOverInMemory() throws Exception {
+        SpillingOutputStream out = new SpillingOutputStream(4);
+        out.write("hello world".getBytes());
+        assertTrue(out.isSpilled());
+        out.reset();
+        assertFalse(out.isSpilled());
+        assertEquals(0, out.size());
+        out.write("hi".getBytes());
+        assertEquals("hi", contents(out.getBuffer()));
+        out.close();
+    }
+
+    @Test
+    public void deletesTheFileOnResetAndClose() throws Exception {
+        SpillingOutputStream out = new SpillingOutputStream(4);
+        out.write("hello world".getBytes());
+        Path file = out.getFile();
+        assertNotNull(file);
+        out.reset();
+        assertFalse(Files.exists(file));
+
+        out.write("hello again".getBytes());
+        file = out.getFile();
+        out.close();
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    public void handlesWritesLargerThanTheWriteBuffer() throws Exception {
+        SpillingOutputStream out = new SpillingOutputStream(16);
+        byte[] big = new byte[200 * 1024];
+        for (int i = 0; i < big.length; ++i) {
+            big[i] = (byte)i;
+        }
+        out.write(big);
+        out.write(big, 0, 7);
+        ByteBuffer buf = out.getBuffer();
+        assertEquals(big.length + 7, buf.remaining());
+        assertEquals(big[big.length - 1], buf.get(big.length - 1));
+        assertEquals(big[6], buf.get(big.length + 6));
+        out.close();
+    }
+}